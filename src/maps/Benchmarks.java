@@ -0,0 +1,288 @@
+package maps;
+
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.function.IntSupplier;
+import java.util.regex.Pattern;
+
+import interf.IUIConfiguration;
+
+/**
+ * Benchmark suite of the planner, to judge performance changes by numbers instead of by <code>System.out</code>
+ * timings. It follows the method of JMH in a single class with no dependencies: each benchmark runs warmup iterations,
+ * then measurement iterations of fixed duration, and reports the mean time per operation with its standard deviation
+ * over the iterations and the bytes allocated per operation by the benchmark thread (the <code>gc.alloc.rate.norm</code>
+ * of <code>-prof gc</code>). Results are kept alive in a sink so the JIT cannot remove the work.
+ * <p>
+ * The benchmarks are named <code>group.name.mapN</code>:
+ * <ul>
+ * <li><code>kernel</code>: {@link PathDrawingSample#fitness}, {@link PathDrawingSample#calculateIntersections} and
+ * {@link PathDrawingSample#isPointInObstacle} over 100 random paths (or points) of each map, one generation of
+ * {@link PathDrawingSample#crossover} and {@link PathDrawingSample#mutate} on a population of 100, and the segments
+ * of a path tested against every obstacle, one {@link Rectangle} at a time (<code>segmentScan</code>) and with the
+ * packed kernel of {@link RectangleBatch} (<code>segmentBatch</code>);</li>
+ * <li><code>e2e</code>: a whole {@link PathPlanner} run of at most 300 generations from fixed seeds, map snapshot and
+ * indexing included.</li>
+ * </ul>
+ * The arguments are <code>name=value</code> pairs, as for {@link Sweep}:
+ * <pre>
+ * filter=kernel\.fitness.* warmup=3 iterations=5 time=500
+ * </pre>
+ * where <code>filter</code> is a regular expression matched against the names, and <code>time</code> is the duration
+ * of an iteration in milliseconds. Run with a fixed heap (for instance <code>-Xms1g -Xmx1g</code>) for stable numbers.
+ */
+public class Benchmarks
+{
+    private static final int PATHS = 100;
+    private static final double MUTATION_RATE = 0.05;
+    private static final int E2E_GENERATIONS = 300;
+    private static final long[] E2E_SEEDS = { 1, 2, 3 };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Keeps the results of the benchmarks alive.
+     */
+    private static volatile int sink;
+
+    private final int warmup, iterations;
+    private final long iterationNanos;
+
+    /**
+     * Creates a runner.
+     *
+     * @param warmup the number of warmup iterations, whose results are discarded
+     * @param iterations the number of measured iterations (at least 1)
+     * @param iterationMillis the duration of each iteration, in milliseconds
+     */
+    public Benchmarks(int warmup, int iterations, long iterationMillis)
+    {
+        if (warmup < 0 || iterations < 1 || iterationMillis < 1)
+            throw new IllegalArgumentException("warmup must be >= 0, iterations and time must be positive");
+
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1_000_000;
+    }
+
+    /**
+     * Measures one benchmark.
+     *
+     * @param operation one operation, returning a value that depends on its work
+     * @return the measurement
+     */
+    public Result measure(String name, IntSupplier operation)
+    {
+        for (int i = 0; i < warmup; i++)
+            iteration(operation);
+
+        double[] nanosPerOp = new double[iterations];
+        long operations = 0;
+        long thread = Thread.currentThread().getId();
+        long allocated = THREADS.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long count = iteration(operation);
+            nanosPerOp[i] = (double) (System.nanoTime() - start) / count;
+            operations += count;
+        }
+        allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+
+        double mean = 0, variance = 0;
+        for (double value : nanosPerOp)
+            mean += value / iterations;
+        for (double value : nanosPerOp)
+            variance += (value - mean) * (value - mean) / Math.max(1, iterations - 1);
+        return new Result(name, mean, Math.sqrt(variance), (double) allocated / operations);
+    }
+
+    /**
+     * Runs the operation until the iteration time expires, checking the clock every few operations.
+     */
+    private long iteration(IntSupplier operation)
+    {
+        long start = System.nanoTime(), count = 0;
+        int batch = 1, result = 0;
+        do {
+            for (int i = 0; i < batch; i++)
+                result += operation.getAsInt();
+            count += batch;
+            if (batch < 1024)
+                batch *= 2;
+        } while (System.nanoTime() - start < iterationNanos);
+        sink += result;
+        return count;
+    }
+
+    /**
+     * Builds the benchmarks of a map whose names match a filter and appends them to a list.
+     */
+    private static void benchmarks(int map, Pattern filter, List<String> names, List<IntSupplier> operations)
+            throws Exception
+    {
+        IUIConfiguration conf = Maps.getMap(map);
+        SplittableRandom rand = new SplittableRandom(map);
+
+        Population population = new Population(PATHS, PathDrawingSample.MAX_POINTS);
+        Population offspring = new Population(PATHS, PathDrawingSample.MAX_POINTS);
+        // the kernels take the index and the occupancy the way a run holds them, looked up once
+        ObstacleGrid index = ObstacleGrid.of(conf);
+        OccupancyGrid occupancy = OccupancyGrid.of(conf);
+        PathDrawingSample.initializePopulation(population, conf, occupancy, rand);
+        try (FitnessEvaluator evaluator = new FitnessEvaluator(index, 1)) {
+            evaluator.evaluate(population);
+        }
+        List<List<Point>> paths = new ArrayList<>(PATHS);
+        for (int i = 0; i < PATHS; i++)
+            paths.add(population.toPoints(i));
+        int[] xs = new int[PATHS], ys = new int[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            xs[i] = rand.nextInt(conf.getWidth());
+            ys[i] = rand.nextInt(conf.getHeight());
+        }
+        int[] selected = new int[PATHS];
+        PathDrawingSample.select(population, selected, rand);
+        // mutate works on its own copy, so it does not depend on what the crossover benchmark left in offspring
+        Population mutants = new Population(PATHS, PathDrawingSample.MAX_POINTS);
+        for (int i = 0; i < PATHS; i++)
+            mutants.copy(i, population, i);
+
+        int[] next = new int[1];
+        add("kernel.fitness.map" + map, filter, names, operations, () -> {
+            int i = next[0]++ % PATHS;
+            return (int) PathDrawingSample.fitness(paths.get(i), index);
+        });
+        add("kernel.calculateIntersections.map" + map, filter, names, operations, () -> {
+            int i = next[0]++ % PATHS;
+            return PathDrawingSample.calculateIntersections(paths.get(i), index);
+        });
+        add("kernel.isPointInObstacle.map" + map, filter, names, operations, () -> {
+            int i = next[0]++ % PATHS;
+            return PathDrawingSample.isPointInObstacle(xs[i], ys[i], occupancy) ? 1 : 0;
+        });
+        RectangleBatch batch = new RectangleBatch(conf.getObstacles());
+        add("kernel.segmentScan.map" + map, filter, names, operations, () -> {
+            List<Point> path = paths.get(next[0]++ % PATHS);
+            int count = 0;
+            for (int k = 0; k + 1 < path.size(); k++) {
+                Point a = path.get(k), b = path.get(k + 1);
+                for (Rectangle r : conf.getObstacles())
+                    if (r.intersectsLine(a.x, a.y, b.x, b.y))
+                        count++;
+            }
+            return count;
+        });
+        add("kernel.segmentBatch.map" + map, filter, names, operations, () -> {
+            List<Point> path = paths.get(next[0]++ % PATHS);
+            int count = 0;
+            for (int k = 0; k + 1 < path.size(); k++) {
+                Point a = path.get(k), b = path.get(k + 1);
+                count += batch.countIntersections(a.x, a.y, b.x, b.y);
+            }
+            return count;
+        });
+        add("kernel.crossover.map" + map, filter, names, operations, () -> {
+            PathDrawingSample.crossover(population, selected, offspring, rand);
+            return offspring.length(0);
+        });
+        add("kernel.mutate.map" + map, filter, names, operations, () -> {
+            PathDrawingSample.mutate(mutants, MUTATION_RATE, conf, occupancy, rand);
+            return mutants.getX(0, 1);
+        });
+        for (long seed : E2E_SEEDS) {
+            add("e2e.plan.map" + map + ".seed" + seed, filter, names, operations, () -> {
+                PathPlanner planner = new PathPlanner(conf, PATHS, MUTATION_RATE,
+                                                      new SplittableRandom(seed));
+                return planner.plan(E2E_GENERATIONS).getPoints().size() + planner.getGenerations();
+            });
+        }
+    }
+
+    private static void add(String name, Pattern filter, List<String> names, List<IntSupplier> operations,
+                            IntSupplier operation)
+    {
+        if (filter.matcher(name).matches()) {
+            names.add(name);
+            operations.add(operation);
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Pattern filter = Pattern.compile(".*");
+        int warmup = 3, iterations = 5;
+        long time = 500;
+
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0)
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            String name = arg.substring(0, equals), value = arg.substring(equals + 1);
+            switch (name) {
+                case "filter": filter = Pattern.compile(value); break;
+                case "warmup": warmup = Integer.parseInt(value); break;
+                case "iterations": iterations = Integer.parseInt(value); break;
+                case "time": time = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("unknown argument: " + name);
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        List<IntSupplier> operations = new ArrayList<>();
+        for (int map = 0; map <= 10; map++)
+            benchmarks(map, filter, names, operations);
+
+        Benchmarks runner = new Benchmarks(warmup, iterations, time);
+        System.out.println(Result.HEADER);
+        for (int i = 0; i < names.size(); i++)
+            System.out.println(runner.measure(names.get(i), operations.get(i)));
+    }
+
+    /**
+     * Measurement of one benchmark.
+     */
+    public static class Result
+    {
+        private static final String HEADER = String.format(Locale.ROOT, "%-40s %14s %12s %14s",
+                "Benchmark", "ns/op", "sd", "B/op");
+
+        private final String name;
+        private final double nanosPerOp, deviation, bytesPerOp;
+
+        private Result(String name, double nanosPerOp, double deviation, double bytesPerOp) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.deviation = deviation;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getNanosPerOp() {
+            return nanosPerOp;
+        }
+
+        /**
+         * Returns the standard deviation of the time per operation over the measured iterations.
+         */
+        public double getDeviation() {
+            return deviation;
+        }
+
+        public double getBytesPerOp() {
+            return bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-40s %14.1f %12.1f %14.1f", name, nanosPerOp, deviation, bytesPerOp);
+        }
+    }
+}
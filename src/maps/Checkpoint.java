@@ -0,0 +1,394 @@
+package maps;
+
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import interf.IUIConfiguration;
+
+/**
+ * State of a run of the genetic algorithm of {@link PathDrawingSample} at the end of a generation: the map, the
+ * mutation rate, the population with its scores, the best individual, the position of the random stream, the progress
+ * seen by {@link Termination} and, in steady-state mode, the elite archive. Everything else the loop uses is either
+ * rebuilt from these or overwritten before it is read, so a run resumed from a checkpoint makes exactly the choices
+ * that the interrupted one would have made.
+ * <p>
+ * The file is a compact binary format: a header, the fields written with {@link DataOutputStream}, lengths and
+ * coordinates as variable-length integers, and a CRC-32 of all of it at the end. A {@link Writer} saves checkpoints
+ * on a background thread, so the genetic algorithm only pays for encoding the state into a byte array.
+ */
+public class Checkpoint
+{
+    private static final int MAGIC = 0x47414350; // "GACP"
+    private static final int VERSION = 1;
+
+    private final IUIConfiguration conf;
+    private final double mutationRate;
+    private final int generation, bestGeneration;
+    private final long randomState;
+    private final double terminationFitness;
+    private final int lastImprovement;
+    private final Population population, best;
+    private final Population archive;
+    private final int archived;
+
+    /**
+     * Captures the state of a run. The populations are not copied, so the checkpoint must be encoded with
+     * {@link #toBytes()} before the run goes on.
+     *
+     * @param conf the map
+     * @param mutationRate the probability that an individual is mutated
+     * @param generation the generation that has just finished
+     * @param random the random stream of the run
+     * @param termination the stopping criteria of the run
+     * @param population the scored population
+     * @param best the best individual, in a population of size 1, or an empty individual if there is none yet
+     * @param bestGeneration the generation in which the best individual was found
+     * @param archive the elite archive of a steady-state run, or null
+     * @param archived the number of filled individuals of the archive
+     */
+    public Checkpoint(IUIConfiguration conf, double mutationRate, int generation, SplitMix random,
+                      Termination termination, Population population, Population best, int bestGeneration,
+                      Population archive, int archived)
+    {
+        this(conf, mutationRate, generation, random.getState(), termination.getBestFitness(),
+             termination.getLastImprovement(), population, best, bestGeneration, archive, archived);
+    }
+
+    private Checkpoint(IUIConfiguration conf, double mutationRate, int generation, long randomState,
+                       double terminationFitness, int lastImprovement, Population population, Population best,
+                       int bestGeneration, Population archive, int archived)
+    {
+        this.conf = conf;
+        this.mutationRate = mutationRate;
+        this.generation = generation;
+        this.randomState = randomState;
+        this.terminationFitness = terminationFitness;
+        this.lastImprovement = lastImprovement;
+        this.population = population;
+        this.best = best;
+        this.bestGeneration = bestGeneration;
+        this.archive = archive;
+        this.archived = archive == null ? 0 : archived;
+    }
+
+    /**
+     * Encodes the checkpoint.
+     *
+     * @return the contents of a checkpoint file
+     */
+    public byte[] toBytes()
+    {
+        int points = population.size() * population.getCapacity();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + 16 * points);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            write(out, conf);
+            out.writeDouble(mutationRate);
+            writeVarInt(out, generation);
+            writeVarInt(out, bestGeneration);
+            out.writeLong(randomState);
+            out.writeDouble(terminationFitness);
+            writeVarInt(out, lastImprovement);
+
+            write(out, population, population.size());
+            write(out, best, 1);
+            writeVarInt(out, archived);
+            if (archived > 0)
+                write(out, archive, archived);
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot encode checkpoint", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the size, start, end and obstacles of a map.
+     */
+    static void write(DataOutputStream out, IUIConfiguration conf) throws IOException
+    {
+        writeVarInt(out, conf.getWidth());
+        writeVarInt(out, conf.getHeight());
+        writeVarInt(out, conf.getStart().getX());
+        writeVarInt(out, conf.getStart().getY());
+        writeVarInt(out, conf.getEnd().getX());
+        writeVarInt(out, conf.getEnd().getY());
+        writeVarInt(out, conf.getObstacles().size());
+        for (Rectangle r : conf.getObstacles()) {
+            writeVarInt(out, r.x);
+            writeVarInt(out, r.y);
+            writeVarInt(out, r.width);
+            writeVarInt(out, r.height);
+        }
+    }
+
+    /**
+     * Writes the first <code>count</code> individuals of a population with their scores.
+     */
+    static void write(DataOutputStream out, Population population, int count) throws IOException
+    {
+        writeVarInt(out, count);
+        writeVarInt(out, population.getCapacity());
+        for (int i = 0; i < count; i++) {
+            writeVarInt(out, population.length(i));
+            for (int k = 0; k < population.length(i); k++) {
+                writeVarInt(out, population.getX(i, k));
+                writeVarInt(out, population.getY(i, k));
+            }
+            out.writeDouble(population.getDistance(i));
+            writeVarInt(out, population.getIntersections(i));
+        }
+    }
+
+    /**
+     * Reads a checkpoint file.
+     *
+     * @param file the file
+     * @return the checkpoint
+     * @throws IOException if the file cannot be read, is not a checkpoint or is corrupt
+     */
+    public static Checkpoint read(Path file) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 12)
+            throw new IOException("not a checkpoint: " + file);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        int stored = ((bytes[bytes.length - 4] & 0xff) << 24) | ((bytes[bytes.length - 3] & 0xff) << 16)
+                | ((bytes[bytes.length - 2] & 0xff) << 8) | (bytes[bytes.length - 1] & 0xff);
+        if (stored != (int) crc.getValue())
+            throw new IOException("corrupt checkpoint: " + file);
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a checkpoint: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("unsupported checkpoint version " + version + ": " + file);
+
+            IUIConfiguration conf = readConf(in);
+            double mutationRate = in.readDouble();
+            int generation = readVarInt(in), bestGeneration = readVarInt(in);
+            long randomState = in.readLong();
+            double terminationFitness = in.readDouble();
+            int lastImprovement = readVarInt(in);
+
+            Population population = read(in);
+            Population best = read(in);
+            int archived = readVarInt(in);
+            Population archive = archived > 0 ? read(in) : null;
+
+            return new Checkpoint(conf, mutationRate, generation, randomState, terminationFitness, lastImprovement,
+                                  population, best, bestGeneration, archive, archived);
+        }
+    }
+
+    /**
+     * Reads a map written by {@link #write(DataOutputStream, IUIConfiguration)}.
+     */
+    static IUIConfiguration readConf(DataInputStream in) throws IOException
+    {
+        int width = readVarInt(in), height = readVarInt(in);
+        impl.Point start = new impl.Point(readVarInt(in), readVarInt(in));
+        impl.Point end = new impl.Point(readVarInt(in), readVarInt(in));
+        int obstacles = readVarInt(in);
+        List<Rectangle> rectangles = new ArrayList<>(obstacles);
+        for (int i = 0; i < obstacles; i++)
+            rectangles.add(new Rectangle(readVarInt(in), readVarInt(in), readVarInt(in), readVarInt(in)));
+        impl.UIConfiguration conf = new impl.UIConfiguration(width, height, rectangles);
+        conf.setStart(start);
+        conf.setEnd(end);
+        return conf;
+    }
+
+    /**
+     * Reads individuals written by {@link #write(DataOutputStream, Population, int)} into a new population.
+     */
+    static Population read(DataInputStream in) throws IOException
+    {
+        int count = readVarInt(in), capacity = readVarInt(in);
+        Population population = new Population(count, capacity);
+        for (int i = 0; i < count; i++) {
+            int length = readVarInt(in);
+            for (int k = 0; k < length; k++)
+                population.add(i, readVarInt(in), readVarInt(in));
+            population.setScore(i, in.readDouble(), readVarInt(in));
+        }
+        return population;
+    }
+
+    /**
+     * Writes an int in 7-bit groups, least significant first, so the small non-negative values of a run take one or
+     * two bytes.
+     */
+    static void writeVarInt(OutputStream out, int value) throws IOException
+    {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarInt(InputStream in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("truncated input");
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("malformed variable-length integer");
+    }
+
+    public IUIConfiguration getConf() {
+        return conf;
+    }
+
+    public double getMutationRate() {
+        return mutationRate;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns a random stream positioned where the run stopped.
+     */
+    public SplitMix getRandom() {
+        return new SplitMix(randomState);
+    }
+
+    /**
+     * Restores the progress of the run into stopping criteria, restarting their clock.
+     */
+    public void resume(Termination termination) {
+        termination.resume(terminationFitness, lastImprovement);
+    }
+
+    public Population getPopulation() {
+        return population;
+    }
+
+    /**
+     * Returns the best individual, in a population of size 1, whose length is 0 if the run had none yet.
+     */
+    public Population getBest() {
+        return best;
+    }
+
+    public int getBestGeneration() {
+        return bestGeneration;
+    }
+
+    /**
+     * Returns the elite archive of a steady-state run, or null.
+     */
+    public Population getArchive() {
+        return archive;
+    }
+
+    public int getArchived() {
+        return archived;
+    }
+
+    /**
+     * Saves checkpoints on a background thread. Only the latest checkpoint matters: if several are submitted while
+     * one is being written, the older ones are skipped. Each file is written next to the destination and then moved
+     * over it, so a run killed during a write leaves the previous checkpoint intact.
+     */
+    public static class Writer implements AutoCloseable
+    {
+        private final Path file;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final AtomicReference<byte[]> pending = new AtomicReference<>();
+        private volatile IOException failure;
+        private volatile int written;
+
+        public Writer(Path file)
+        {
+            this.file = file;
+        }
+
+        /**
+         * Schedules the writing of a checkpoint and returns at once.
+         *
+         * @param checkpoint the contents of the file, as returned by {@link Checkpoint#toBytes()}
+         */
+        public void submit(byte[] checkpoint)
+        {
+            if (pending.getAndSet(checkpoint) == null)
+                executor.execute(this::flush);
+        }
+
+        private void flush()
+        {
+            byte[] bytes = pending.getAndSet(null);
+            if (bytes == null)
+                return;
+            try {
+                Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(temporary, bytes);
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                written++;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Returns the number of checkpoints written so far.
+         */
+        public int getWritten() {
+            return written;
+        }
+
+        /**
+         * Waits for the pending checkpoint to be written.
+         *
+         * @throws IOException if some checkpoint could not be written
+         */
+        @Override
+        public void close() throws IOException
+        {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null)
+                throw failure;
+        }
+    }
+}
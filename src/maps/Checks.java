@@ -0,0 +1,226 @@
+package maps;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+import interf.IPoint;
+import interf.IUIConfiguration;
+
+/**
+ * Self-checking programs for properties that the planner promises and that are easy to break without noticing, with
+ * no dependencies, like {@link Benchmarks}. Each check prints one line with its result; the program exits with status
+ * 1 if any check failed.
+ * <p>
+ * The arguments are <code>name=value</code> pairs, as for {@link Sweep}:
+ * <pre>
+ * filter=occupancy\..*
+ * </pre>
+ * where <code>filter</code> is a regular expression matched against the names of the checks.
+ */
+public class Checks
+{
+    private static final int MAPS = 300;
+    private static final int POINTS = 2000;
+    private static final int SEGMENTS = 200;
+    private static final int RUNS = 6;
+
+    /**
+     * Compares {@link OccupancyGrid} in {@link OccupancyGrid.Mode#EXACT} with {@link Rectangle#contains(int, int)}
+     * and {@link Rectangle#intersectsLine(double, double, double, double)} on random maps whose obstacles may lie
+     * partly or entirely outside the map.
+     *
+     * @return a description of the first difference, or null if there is none
+     */
+    static String occupancyExact(int resolution)
+    {
+        SplittableRandom rand = new SplittableRandom(resolution);
+        for (int map = 0; map < MAPS; map++) {
+            int width = 50 + rand.nextInt(400), height = 50 + rand.nextInt(400);
+            List<Rectangle> obstacles = new ArrayList<>();
+            for (int i = 0, n = rand.nextInt(30); i < n; i++)
+                obstacles.add(new Rectangle(rand.nextInt(-60, width + 60), rand.nextInt(-60, height + 60),
+                                            rand.nextInt(0, 50), rand.nextInt(0, 50)));
+            // one obstacle entirely off the map, next to each border
+            obstacles.add(new Rectangle(-10, rand.nextInt(height), 5, 5));
+            obstacles.add(new Rectangle(width + 2, rand.nextInt(height), 5, 5));
+            obstacles.add(new Rectangle(rand.nextInt(width), -10, 5, 5));
+            obstacles.add(new Rectangle(rand.nextInt(width), height + 2, 5, 5));
+            IUIConfiguration conf = new impl.UIConfiguration(width, height, obstacles);
+            OccupancyGrid grid = new OccupancyGrid(conf, OccupancyGrid.Mode.EXACT, resolution);
+
+            for (int k = 0; k < POINTS; k++) {
+                int x = rand.nextInt(width), y = rand.nextInt(height);
+                boolean expected = false;
+                for (Rectangle r : obstacles)
+                    expected |= r.contains(x, y);
+                if (grid.contains(x, y) != expected)
+                    return "map " + map + ": contains(" + x + ", " + y + ") is " + !expected;
+            }
+            for (int k = 0; k < SEGMENTS; k++) {
+                int x1 = rand.nextInt(width), y1 = rand.nextInt(height);
+                int x2 = rand.nextInt(width), y2 = rand.nextInt(height);
+                int expected = 0;
+                for (Rectangle r : obstacles)
+                    if (!r.isEmpty() && r.intersectsLine(x1, y1, x2, y2))
+                        expected++;
+                if (grid.countIntersections(x1, y1, x2, y2) != expected)
+                    return "map " + map + ": countIntersections(" + x1 + ", " + y1 + ", " + x2 + ", " + y2 + ") is "
+                           + grid.countIntersections(x1, y1, x2, y2) + " instead of " + expected;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs an {@link IslandModel} several times from the same seed, each time slowing down a different island, and
+     * compares the best individuals; a run that depends on how the threads are scheduled gives different results.
+     *
+     * @return a description of the first difference, or null if there is none
+     */
+    static String islandsReproducible(int map) throws Exception
+    {
+        IUIConfiguration conf = Maps.getMap(map);
+        int islands = 3;
+        String expected = null;
+        for (int run = 0; run < RUNS; run++) {
+            IslandModel model = new IslandModel(new Slowed(conf, "-thread-" + (run % islands + 1)), islands, 40, 5,
+                                                3, 0.05, 42);
+            model.run(60);
+            Population best = model.getBest();
+            String result = model.getBestIntersections() + " " + model.getBestFitness() + " "
+                            + model.getBestGeneration() + " " + model.getBestIsland() + " " + best.toPoints(0);
+            if (expected == null)
+                expected = result;
+            else if (!expected.equals(result))
+                return "run " + run + " gave " + result + " instead of " + expected;
+        }
+        return null;
+    }
+
+    public static void main(String[] args)
+    {
+        Pattern filter = Pattern.compile(".*");
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0)
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            String name = arg.substring(0, equals), value = arg.substring(equals + 1);
+            switch (name) {
+                case "filter": filter = Pattern.compile(value); break;
+                default: throw new IllegalArgumentException("unknown argument: " + name);
+            }
+        }
+
+        int failed = 0;
+        failed += check("occupancy.exact.resolution1", filter, () -> occupancyExact(1));
+        failed += check("occupancy.exact.resolution3", filter, () -> occupancyExact(3));
+        failed += check("islands.reproducible.map6", filter, () -> islandsReproducible(6));
+        failed += check("islands.reproducible.map9", filter, () -> islandsReproducible(9));
+        if (failed > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Runs one check if its name matches the filter and prints its result.
+     *
+     * @return 1 if the check ran and failed, 0 otherwise
+     */
+    private static int check(String name, Pattern filter, Check check)
+    {
+        if (!filter.matcher(name).matches())
+            return 0;
+        String failure;
+        try {
+            failure = check.run();
+        } catch (Exception e) {
+            failure = e.toString();
+        }
+        System.out.printf("%-40s %s%n", name, failure == null ? "ok" : "FAILED: " + failure);
+        return failure == null ? 0 : 1;
+    }
+
+    /**
+     * A map whose size is slow to read from the threads whose name ends with a given suffix, which makes the islands
+     * they run generate their paths slower than the others.
+     */
+    private static class Slowed implements IUIConfiguration
+    {
+        private final IUIConfiguration conf;
+        private final String slow;
+
+        private Slowed(IUIConfiguration conf, String slow) {
+            this.conf = conf;
+            this.slow = slow;
+        }
+
+        private void delay()
+        {
+            if (Thread.currentThread().getName().endsWith(slow))
+                LockSupport.parkNanos(20_000);
+        }
+
+        @Override
+        public int getWidth() {
+            delay();
+            return conf.getWidth();
+        }
+
+        @Override
+        public void setWidth(int width) {
+            conf.setWidth(width);
+        }
+
+        @Override
+        public int getHeight() {
+            delay();
+            return conf.getHeight();
+        }
+
+        @Override
+        public void setHeight(int height) {
+            conf.setHeight(height);
+        }
+
+        @Override
+        public List<Rectangle> getObstacles() {
+            return conf.getObstacles();
+        }
+
+        @Override
+        public void setObstacles(List<Rectangle> obstacles) {
+            conf.setObstacles(obstacles);
+        }
+
+        @Override
+        public IPoint getStart() {
+            return conf.getStart();
+        }
+
+        @Override
+        public void setStart(IPoint start) {
+            conf.setStart(start);
+        }
+
+        @Override
+        public IPoint getEnd() {
+            return conf.getEnd();
+        }
+
+        @Override
+        public void setEnd(IPoint end) {
+            conf.setEnd(end);
+        }
+    }
+
+    /**
+     * One check, returning a description of what went wrong or null.
+     */
+    private interface Check
+    {
+        String run() throws Exception;
+    }
+}
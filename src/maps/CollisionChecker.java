@@ -0,0 +1,30 @@
+package maps;
+
+/**
+ * Answers the geometric questions that the genetic algorithm asks about the obstacles of a map.
+ */
+public interface CollisionChecker
+{
+    /**
+     * Tells if a point is inside an obstacle.
+     *
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @return true if the point is inside an obstacle
+     */
+    boolean contains(int x, int y);
+
+    /**
+     * Counts the obstacles touched by the segment between (x1, y1) and (x2, y2).
+     *
+     * @return the number of obstacles that the segment touches
+     */
+    int countIntersections(int x1, int y1, int x2, int y2);
+
+    /**
+     * Tells if the segment between (x1, y1) and (x2, y2) touches any obstacle.
+     *
+     * @return true if the segment touches at least one obstacle
+     */
+    boolean intersects(int x1, int y1, int x2, int y2);
+}
@@ -0,0 +1,573 @@
+package maps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import interf.IUIConfiguration;
+
+/**
+ * Island model of the genetic algorithm spread over worker processes on the same machine, for maps that need more
+ * cores than one JVM uses well. The coordinator (this class) launches one JVM per island with the class path of the
+ * current one; each worker connects back over a loopback TCP socket, receives the map and its parameters, and runs the
+ * loop of {@link IslandModel} on its own population.
+ * <p>
+ * Every <code>migrationInterval</code> generations each worker sends a report: its generation, the number of
+ * evaluations, its best individual and copies of its best <code>migrants</code> individuals. The coordinator waits for
+ * all the reports, keeps the best individual seen so far, and answers each worker with the migrants of the previous
+ * worker of the ring, which replace its worst individuals, or with the order to stop, at the first migration after some
+ * island finds a path without intersections. Individuals travel in the compact encoding of {@link Checkpoint}:
+ * variable-length coordinates and the score.
+ * <p>
+ * A worker that dies before connecting, does not connect or report within the timeout, or closes its socket is
+ * reported, destroyed and left out of the ring; the others go on, and its best individual is not lost, since the coordinator already holds the last one it reported.
+ * Each island draws from a seed taken in island order from the seed of the run, so a given seed and number of
+ * processes always give the same result as long as no worker fails.
+ */
+public class DistributedIslands
+{
+    private static final int MAGIC = 0x47414953; // "GAIS"
+    private static final int VERSION = 1;
+    private static final int CONTINUE = 0, STOP = 1;
+    /**
+     * How often the coordinator checks that the workers it is still waiting for are alive.
+     */
+    private static final int ACCEPT_POLL_MILLIS = 100;
+
+    private final IUIConfiguration conf;
+    private final int processes, islandSize, migrationInterval, migrants;
+    private final double mutationRate;
+    private final long seed;
+    private int timeoutMillis = 60_000;
+    private int failAfter = -1;
+
+    private Population best;
+    private int bestIntersections = Integer.MAX_VALUE;
+    private int bestGeneration, bestProcess = -1;
+    private int generations, failures;
+    private long evaluations, startupNanos, elapsedNanos;
+
+    /**
+     * Creates a distributed island model.
+     *
+     * @param conf the map
+     * @param processes the number of worker processes, each one running one island
+     * @param islandSize the number of individuals of each island
+     * @param migrationInterval the number of generations between migrations
+     * @param migrants the number of individuals that each island sends in a migration
+     * @param mutationRate the probability that an individual is mutated
+     * @param seed the seed from which the seeds of the islands are drawn
+     */
+    public DistributedIslands(IUIConfiguration conf, int processes, int islandSize, int migrationInterval,
+                              int migrants, double mutationRate, long seed)
+    {
+        if (processes < 1)
+            throw new IllegalArgumentException("processes must be at least 1: " + processes);
+        if (islandSize < 2)
+            throw new IllegalArgumentException("islandSize must be at least 2: " + islandSize);
+        if (migrationInterval < 1)
+            throw new IllegalArgumentException("migrationInterval must be positive: " + migrationInterval);
+        if (migrants < 0 || migrants >= islandSize)
+            throw new IllegalArgumentException("migrants must be in [0, " + (islandSize - 1) + "]: " + migrants);
+
+        this.conf = conf;
+        this.processes = processes;
+        this.islandSize = islandSize;
+        this.migrationInterval = migrationInterval;
+        this.migrants = migrants;
+        this.mutationRate = mutationRate;
+        this.seed = seed;
+    }
+
+    /**
+     * Sets how long the coordinator waits for a worker to connect or to report before it counts it as failed.
+     *
+     * @param timeoutMillis the timeout, in milliseconds (at least 1)
+     */
+    public void setTimeoutMillis(int timeoutMillis)
+    {
+        if (timeoutMillis < 1)
+            throw new IllegalArgumentException("timeoutMillis must be positive: " + timeoutMillis);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Kills the last worker right after the given migration, to test that a run survives the loss of a process.
+     *
+     * @param migration the number of the migration, starting at 1, or -1 to kill no worker
+     */
+    public void setFailAfter(int migration) {
+        this.failAfter = migration;
+    }
+
+    /**
+     * Launches the workers and runs every island for at most the given number of generations, or until some island
+     * finds a path without intersections, and keeps the best individual found.
+     *
+     * @param generations the maximum number of generations of each island
+     * @throws IOException if the coordinator cannot listen for the workers or launch them
+     */
+    public void run(int generations) throws IOException
+    {
+        if (generations < 1)
+            throw new IllegalArgumentException("generations must be at least 1: " + generations);
+
+        long start = System.nanoTime();
+        Worker[] workers = new Worker[processes];
+        try (ServerSocket server = new ServerSocket(0, processes, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(ACCEPT_POLL_MILLIS);
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            for (int i = 0; i < processes; i++) {
+                workers[i] = new Worker(i);
+                workers[i].process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                                        DistributedIslands.class.getName(), "worker",
+                                                        Integer.toString(server.getLocalPort()), Integer.toString(i))
+                        .inheritIO().start();
+            }
+            connect(server, workers);
+
+            SplittableRandom random = new SplittableRandom(seed);
+            for (Worker worker : workers) {
+                // every island gets its seed, even a failed one, so the others do not depend on which failed
+                long islandSeed = random.nextLong();
+                if (worker.failed)
+                    continue;
+                try {
+                    DataOutputStream out = worker.out;
+                    Checkpoint.write(out, conf);
+                    Checkpoint.writeVarInt(out, islandSize);
+                    Checkpoint.writeVarInt(out, migrationInterval);
+                    Checkpoint.writeVarInt(out, migrants);
+                    Checkpoint.writeVarInt(out, generations);
+                    out.writeDouble(mutationRate);
+                    out.writeLong(islandSeed);
+                    out.flush();
+                } catch (IOException e) {
+                    fail(worker, e);
+                }
+            }
+            startupNanos = System.nanoTime() - start;
+
+            coordinate(workers, generations);
+        } finally {
+            for (Worker worker : workers)
+                if (worker != null)
+                    worker.stop();
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Accepts the connections of the workers, which come in any order and say which island they run. While waiting,
+     * a worker whose process has exited is reported and counted as failed, and so is every worker still missing when
+     * the timeout expires; the run goes on with the others. Connections that do not follow the protocol, or that
+     * claim an island that does not exist or is already connected, are closed.
+     *
+     * @throws IOException if no worker connected
+     */
+    private void connect(ServerSocket server, Worker[] workers) throws IOException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int pending = workers.length;
+        while (pending > 0) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketTimeoutException e) {
+                boolean late = System.nanoTime() - deadline > 0;
+                for (Worker worker : workers) {
+                    if (worker.socket != null || worker.failed)
+                        continue;
+                    if (!worker.process.isAlive()) {
+                        fail(worker, new IOException("process exited with code " + worker.process.exitValue()
+                                + " before connecting"));
+                        pending--;
+                    } else if (late) {
+                        fail(worker, new IOException("did not connect within " + timeoutMillis + " ms"));
+                        pending--;
+                    }
+                }
+                continue;
+            }
+
+            try {
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    throw new IOException("not a worker of this version");
+                int id = Checkpoint.readVarInt(in);
+                if (id < 0 || id >= workers.length)
+                    throw new IOException("island " + id + " out of range 0.." + (workers.length - 1));
+                Worker worker = workers[id];
+                if (worker.socket != null || worker.failed)
+                    throw new IOException("island " + id + " already connected or given up");
+                worker.socket = socket;
+                worker.in = in;
+                worker.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                pending--;
+            } catch (IOException e) {
+                System.err.println("Ligação recusada de " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+                socket.close();
+            }
+        }
+        if (failures == workers.length)
+            throw new IOException("no worker connected");
+    }
+
+    /**
+     * Collects the reports of every migration, keeps the best individual and routes the migrants around the ring of
+     * the workers still alive.
+     */
+    private void coordinate(Worker[] workers, int generations)
+    {
+        for (int migration = 1; ; migration++) {
+            List<Worker> alive = new ArrayList<>(processes);
+            boolean finished = true;
+            for (Worker worker : workers) {
+                if (worker.failed)
+                    continue;
+                try {
+                    worker.generation = Checkpoint.readVarInt(worker.in);
+                    worker.evaluations = worker.in.readLong();
+                    Population island = Checkpoint.read(worker.in);
+                    worker.migrants = migrants > 0 ? Checkpoint.read(worker.in) : null;
+                    track(island, worker);
+                    alive.add(worker);
+                    finished &= worker.generation >= generations;
+                } catch (IOException e) {
+                    fail(worker, e);
+                }
+            }
+
+            this.generations = 0;
+            evaluations = 0;
+            for (Worker worker : workers) {
+                this.generations = Math.max(this.generations, worker.generation);
+                evaluations += worker.evaluations;
+            }
+
+            boolean stop = alive.isEmpty() || finished || bestIntersections == 0;
+            for (int k = 0; k < alive.size(); k++) {
+                Worker worker = alive.get(k);
+                Population batch = alive.size() > 1 ? alive.get((k + alive.size() - 1) % alive.size()).migrants
+                                                    : null;
+                try {
+                    Checkpoint.writeVarInt(worker.out, stop ? STOP : CONTINUE);
+                    if (!stop) {
+                        worker.out.writeBoolean(batch != null);
+                        if (batch != null)
+                            Checkpoint.write(worker.out, batch, batch.size());
+                    }
+                    worker.out.flush();
+                } catch (IOException e) {
+                    fail(worker, e);
+                }
+            }
+            if (stop)
+                return;
+
+            if (migration == failAfter) {
+                for (int i = workers.length - 1; i >= 0; i--) {
+                    if (!workers[i].failed) {
+                        workers[i].process.destroyForcibly();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void track(Population island, Worker worker)
+    {
+        if (island.length(0) == 0)
+            return;
+        int intersections = island.getIntersections(0);
+        if (best == null || intersections < bestIntersections
+                || (intersections == bestIntersections && island.getFitness(0) < best.getFitness(0))) {
+            best = island;
+            bestIntersections = intersections;
+            bestGeneration = worker.generation;
+            bestProcess = worker.id;
+        }
+    }
+
+    private void fail(Worker worker, IOException cause)
+    {
+        System.err.println("Worker " + worker.id + " falhou: " + cause);
+        worker.failed = true;
+        worker.process.destroyForcibly();
+        worker.stop();
+        failures++;
+    }
+
+    /**
+     * Returns the best individual found, in a population of size 1, or null if no worker reported one.
+     */
+    public Population getBest() {
+        return best;
+    }
+
+    public double getBestFitness() {
+        return best == null ? Double.MAX_VALUE : best.getFitness(0);
+    }
+
+    public int getBestIntersections() {
+        return bestIntersections;
+    }
+
+    public int getBestGeneration() {
+        return bestGeneration;
+    }
+
+    public int getBestProcess() {
+        return bestProcess;
+    }
+
+    /**
+     * Returns the number of generations run by the island that went furthest.
+     */
+    public int getGenerations() {
+        return generations;
+    }
+
+    /**
+     * Returns the number of fitness evaluations of all the islands, as last reported.
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Returns the time spent launching the workers until every one had received its island.
+     */
+    public long getStartupNanos() {
+        return startupNanos;
+    }
+
+    /**
+     * Returns the duration of the whole run, startup included.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of evaluations per second after the startup.
+     */
+    public double getEvaluationsPerSecond()
+    {
+        long running = elapsedNanos - startupNanos;
+        return running <= 0 ? 0 : evaluations / (running / 1e9);
+    }
+
+    /**
+     * Returns the number of workers that died or stopped answering.
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    public int getProcesses() {
+        return processes;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * A worker process as seen by the coordinator.
+     */
+    private static class Worker
+    {
+        private final int id;
+        private Process process;
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        private boolean failed;
+        private int generation;
+        private long evaluations;
+        private Population migrants;
+
+        private Worker(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Closes the connection, which makes a worker that is still waiting for an answer exit, and destroys the
+         * process if it does not exit by itself.
+         */
+        private void stop()
+        {
+            try {
+                if (socket != null)
+                    socket.close();
+            } catch (IOException e) {
+                // the process is destroyed anyway
+            }
+            if (process != null) {
+                try {
+                    if (!process.waitFor(5, TimeUnit.SECONDS))
+                        process.destroyForcibly();
+                } catch (InterruptedException e) {
+                    process.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs one island in a worker process, connected to the coordinator on the given port of the loopback address.
+     */
+    private static void work(int port, int id) throws IOException
+    {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Checkpoint.writeVarInt(out, id);
+            out.flush();
+
+            IUIConfiguration conf = Checkpoint.readConf(in);
+            int islandSize = Checkpoint.readVarInt(in);
+            int migrationInterval = Checkpoint.readVarInt(in);
+            int migrants = Checkpoint.readVarInt(in);
+            int generations = Checkpoint.readVarInt(in);
+            double mutationRate = in.readDouble();
+            SplittableRandom rand = new SplittableRandom(in.readLong());
+
+            Population population = new Population(islandSize, PathDrawingSample.MAX_POINTS);
+            Population offspring = new Population(islandSize, PathDrawingSample.MAX_POINTS);
+            Population best = new Population(1, PathDrawingSample.MAX_POINTS);
+            Population batch = new Population(Math.max(1, migrants), PathDrawingSample.MAX_POINTS);
+            int[] selected = new int[islandSize];
+            int[] order = new int[migrants];
+
+            // the map of a worker never changes, so its index and its occupancy are built once
+            ObstacleGrid index = new ObstacleGrid(conf.getObstacles(), conf.getWidth(), conf.getHeight());
+            OccupancyGrid occupancy = new OccupancyGrid(conf, index, OccupancyGrid.Mode.EXACT);
+            try (FitnessEvaluator evaluator = new FitnessEvaluator(index, 1)) {
+                PathDrawingSample.initializePopulation(population, conf, occupancy, rand);
+                evaluator.evaluate(population);
+
+                int generation = 0;
+                while (true) {
+                    for (int end = Math.min(generation + migrationInterval, generations); generation < end;
+                         generation++) {
+                        PathDrawingSample.select(population, selected, rand);
+                        PathDrawingSample.crossover(population, selected, offspring, rand);
+                        PathDrawingSample.mutate(offspring, mutationRate, conf, occupancy, rand);
+                        evaluator.evaluate(offspring);
+
+                        Population swap = population;
+                        population = offspring;
+                        offspring = swap;
+
+                        for (int i = 0; i < population.size(); i++) {
+                            if (best.length(0) == 0 || population.getIntersections(i) < best.getIntersections(0)
+                                    || (population.getIntersections(i) == best.getIntersections(0)
+                                        && population.getFitness(i) < best.getFitness(0)))
+                                best.copy(0, population, i);
+                        }
+                    }
+
+                    Checkpoint.writeVarInt(out, generation);
+                    out.writeLong(evaluator.getEvaluations());
+                    Checkpoint.write(out, best, 1);
+                    if (migrants > 0) {
+                        IslandModel.select(population, order, true);
+                        for (int k = 0; k < migrants; k++)
+                            batch.copy(k, population, order[k]);
+                        Checkpoint.write(out, batch, migrants);
+                    }
+                    out.flush();
+
+                    if (Checkpoint.readVarInt(in) == STOP)
+                        return;
+                    if (in.readBoolean()) {
+                        Population received = Checkpoint.read(in);
+                        int[] worst = new int[received.size()];
+                        IslandModel.select(population, worst, false);
+                        for (int k = 0; k < received.size(); k++)
+                            population.copy(worst[k], received, k);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures the distributed island model for several numbers of processes, or runs a worker when called by the
+     * coordinator. The arguments are <code>name=value</code> pairs, as for {@link Sweep}:
+     * <pre>
+     * map=9 processes=1,2,4 population=100 generations=500 interval=20 migrants=5 mutation=0.05 seed=42 kill=-1
+     * </pre>
+     * where <code>kill</code> is the migration after which the last worker is killed (-1 for none).
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length == 3 && args[0].equals("worker")) {
+            try {
+                work(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            } catch (IOException e) {
+                throw new UncheckedIOException("worker " + args[2] + " lost the coordinator", e);
+            }
+            return;
+        }
+
+        int map = 9, populationSize = 100, generations = 500, interval = 20, migrants = 5, kill = -1;
+        List<Integer> processes = Sweep.integers("1,2,4");
+        double mutationRate = 0.05;
+        long seed = 42;
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0)
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            String name = arg.substring(0, equals), value = arg.substring(equals + 1);
+            switch (name) {
+                case "map": map = Integer.parseInt(value); break;
+                case "processes": processes = Sweep.integers(value); break;
+                case "population": populationSize = Integer.parseInt(value); break;
+                case "generations": generations = Integer.parseInt(value); break;
+                case "interval": interval = Integer.parseInt(value); break;
+                case "migrants": migrants = Integer.parseInt(value); break;
+                case "mutation": mutationRate = Double.parseDouble(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                case "kill": kill = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("unknown argument: " + name);
+            }
+        }
+
+        IUIConfiguration conf = Maps.getMap(map);
+        System.out.println("processes,fitness,intersections,generations,evaluations,startup_ms,elapsed_ms,"
+                           + "evaluations_per_s,failures");
+        for (int count : processes) {
+            DistributedIslands model = new DistributedIslands(conf, count, populationSize, interval, migrants,
+                                                              mutationRate, seed);
+            model.setFailAfter(kill);
+            model.run(generations);
+            System.out.println(String.format(Locale.ROOT, "%d,%.3f,%d,%d,%d,%.1f,%.1f,%.0f,%d", count,
+                    model.getBestFitness(), model.getBestIntersections(), model.getGenerations(),
+                    model.getEvaluations(), model.getStartupNanos() / 1e6, model.getElapsedNanos() / 1e6,
+                    model.getEvaluationsPerSecond(), model.getFailures()));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package maps;
+
+import java.awt.*;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import interf.IUIConfiguration;
+
+/**
+ * Evaluation stage of the genetic algorithm. Scores every individual of a population exactly once, writing the
+ * results into reusable {@link Score} objects, and spreads the work over a {@link ForkJoinPool} with a configurable
+ * level of parallelism.
+ */
+public class FitnessEvaluator implements AutoCloseable
+{
+    /**
+     * Below this number of individuals a task evaluates its range directly instead of splitting it further.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 4;
+
+    private final CollisionChecker grid;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private long evaluations;
+
+    /**
+     * Creates an evaluator that uses every available processor.
+     *
+     * @param conf the map in which the paths are evaluated
+     */
+    public FitnessEvaluator(IUIConfiguration conf)
+    {
+        this(conf, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an evaluator with the given level of parallelism. A parallelism of 1 evaluates on the calling thread
+     * and does not create a pool.
+     *
+     * @param conf the map in which the paths are evaluated
+     * @param parallelism the number of worker threads to use (at least 1)
+     */
+    public FitnessEvaluator(IUIConfiguration conf, int parallelism)
+    {
+        this(ObstacleGrid.of(conf), parallelism);
+    }
+
+    /**
+     * Creates an evaluator that answers the collision queries with the given checker, for instance an
+     * {@link OccupancyGrid} in {@link OccupancyGrid.Mode#CONSERVATIVE} mode.
+     *
+     * @param grid the obstacles of the map in which the paths are evaluated
+     * @param parallelism the number of worker threads to use (at least 1)
+     */
+    public FitnessEvaluator(CollisionChecker grid, int parallelism)
+    {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+
+        this.grid = grid;
+        this.parallelism = parallelism;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * Scores every path of the population. The array of scores is reused when it is large enough, otherwise a new one
+     * is returned.
+     *
+     * @param population the paths to evaluate
+     * @param scores the scores of the previous generation, or null
+     * @return the scores of the population, where <code>scores[i]</code> corresponds to <code>population.get(i)</code>
+     */
+    public Score[] evaluate(List<List<Point>> population, Score[] scores)
+    {
+        if (scores == null || scores.length < population.size())
+            scores = Score.newArray(population.size());
+
+        if (pool == null || population.size() <= SEQUENTIAL_THRESHOLD)
+            evaluateRange(population, scores, null, 0, population.size());
+        else
+            pool.invoke(new EvaluateTask(population, scores, null, 0, population.size()));
+
+        evaluations += population.size();
+        return scores;
+    }
+
+    /**
+     * Scores every individual of a population stored in primitive arrays, writing the results into the population.
+     *
+     * @param population the paths to evaluate
+     */
+    public void evaluate(Population population)
+    {
+        if (pool == null || population.size() <= SEQUENTIAL_THRESHOLD)
+            evaluateRange(null, null, population, 0, population.size());
+        else
+            pool.invoke(new EvaluateTask(null, null, population, 0, population.size()));
+
+        evaluations += population.size();
+    }
+
+    /**
+     * Evaluates a range of individuals, either of a list of paths (with their scores) or of a {@link Population}.
+     */
+    private void evaluateRange(List<List<Point>> population, Score[] scores, Population store, int from, int to)
+    {
+        if (store != null) {
+            for (int i = from; i < to; i++)
+                store.score(i, grid);
+            return;
+        }
+        for (int i = from; i < to; i++)
+            PathDrawingSample.score(population.get(i), grid, scores[i]);
+    }
+
+    /**
+     * Returns the number of individuals evaluated so far.
+     *
+     * @return the number of fitness evaluations performed by this evaluator
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void close()
+    {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    @SuppressWarnings("serial")
+    private class EvaluateTask extends RecursiveAction
+    {
+        private final List<List<Point>> population;
+        private final Score[] scores;
+        private final Population store;
+        private final int from, to;
+
+        private EvaluateTask(List<List<Point>> population, Score[] scores, Population store, int from, int to) {
+            this.population = population;
+            this.scores = scores;
+            this.store = store;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                evaluateRange(population, scores, store, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EvaluateTask(population, scores, store, from, middle),
+                      new EvaluateTask(population, scores, store, middle, to));
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package maps;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import interf.IUIConfiguration;
+
+/**
+ * Deterministic fallback planner: A* over a grid of square cells laid over the map, followed by a pass that removes
+ * the waypoints that can be skipped without touching an obstacle.
+ * <p>
+ * A cell is blocked when the closed bounds of some obstacle meet it, and moves between cells never cut the corner of
+ * a blocked cell, so consecutive cell centres can always be joined without intersections. The cells of the start and
+ * the end are always open; when an obstacle meets them, the first or the last segment of the path may touch it, which
+ * {@link Result#getIntersections()} reports.
+ * <p>
+ * The search starts with coarse cells and halves them when no path is found, down to 1 pixel, so its running time is
+ * bounded by a few searches over at most <code>width x height</code> cells. When even the finest grid has no path,
+ * the result says so instead of retrying.
+ */
+public class GridPlanner
+{
+    public enum Status { FOUND, NO_PATH }
+
+    /**
+     * Side of the cells of the first search, in pixels.
+     */
+    public static final int DEFAULT_CELL_SIZE = 8;
+    private static final double DIAGONAL = Math.sqrt(2);
+
+    private final IUIConfiguration conf;
+    private final CollisionChecker grid;
+    private final int initialCellSize;
+
+    /**
+     * Creates a planner that starts with cells of {@value #DEFAULT_CELL_SIZE} pixels.
+     *
+     * @param conf the map, including the start and the end of the path
+     * @param grid the obstacles of the map
+     */
+    public GridPlanner(IUIConfiguration conf, CollisionChecker grid)
+    {
+        this(conf, grid, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Creates a planner.
+     *
+     * @param conf the map, including the start and the end of the path
+     * @param grid the obstacles of the map
+     * @param initialCellSize the side of the cells of the first search, in pixels
+     */
+    public GridPlanner(IUIConfiguration conf, CollisionChecker grid, int initialCellSize)
+    {
+        if (initialCellSize < 1)
+            throw new IllegalArgumentException("initialCellSize must be positive: " + initialCellSize);
+
+        this.conf = conf;
+        this.grid = grid;
+        this.initialCellSize = initialCellSize;
+    }
+
+    /**
+     * Searches grids of decreasing cell size until a path is found or the 1 pixel grid has been searched.
+     *
+     * @return the result of the search
+     */
+    public Result plan()
+    {
+        int expanded = 0;
+        for (int cellSize = initialCellSize; ; cellSize = Math.max(1, cellSize / 2)) {
+            Result result = plan(cellSize);
+            expanded += result.expanded;
+            if (result.status == Status.FOUND || cellSize == 1)
+                return new Result(result.status, result.path, result.intersections, cellSize, expanded);
+        }
+    }
+
+    /**
+     * Searches a single grid.
+     *
+     * @param cellSize the side of the cells, in pixels
+     * @return the result of the search
+     */
+    public Result plan(int cellSize)
+    {
+        int columns = Math.max(1, (conf.getWidth() + cellSize - 1) / cellSize);
+        int rows = Math.max(1, (conf.getHeight() + cellSize - 1) / cellSize);
+        boolean[] blocked = rasterize(cellSize, columns, rows);
+
+        int startX = conf.getStart().getX(), startY = conf.getStart().getY();
+        int endX = conf.getEnd().getX(), endY = conf.getEnd().getY();
+        int start = cellOf(startX, startY, cellSize, columns, rows);
+        int end = cellOf(endX, endY, cellSize, columns, rows);
+        blocked[start] = false;
+        blocked[end] = false;
+
+        int n = columns * rows;
+        double[] cost = new double[n];
+        int[] parent = new int[n];
+        boolean[] closed = new boolean[n];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+
+        int endColumn = end % columns, endRow = end / columns;
+        PriorityQueue<Entry> open = new PriorityQueue<>();
+        cost[start] = 0;
+        open.add(new Entry(start, octile(start % columns, start / columns, endColumn, endRow)));
+        int expanded = 0;
+
+        while (!open.isEmpty()) {
+            int cell = open.poll().cell;
+            if (closed[cell])
+                continue;
+            closed[cell] = true;
+            expanded++;
+
+            if (cell == end) {
+                List<Point> path = smooth(cells(parent, end), cellSize, columns);
+                return new Result(Status.FOUND, path, countIntersections(path), cellSize, expanded);
+            }
+
+            int column = cell % columns, row = cell / columns;
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int c = column + dx, r = row + dy;
+                    if ((dx == 0 && dy == 0) || c < 0 || r < 0 || c >= columns || r >= rows)
+                        continue;
+                    int next = r * columns + c;
+                    // diagonal moves may not cut the corner of a blocked cell
+                    if (closed[next] || blocked[next]
+                            || (dx != 0 && dy != 0 && (blocked[row * columns + c] || blocked[r * columns + column])))
+                        continue;
+                    double candidate = cost[cell] + (dx != 0 && dy != 0 ? DIAGONAL : 1);
+                    if (candidate >= cost[next])
+                        continue;
+                    cost[next] = candidate;
+                    parent[next] = cell;
+                    open.add(new Entry(next, candidate + octile(c, r, endColumn, endRow)));
+                }
+            }
+        }
+        return new Result(Status.NO_PATH, null, 0, cellSize, expanded);
+    }
+
+    private int countIntersections(List<Point> path)
+    {
+        int intersections = 0;
+        for (int i = 0; i < path.size() - 1; i++)
+            intersections += grid.countIntersections(path.get(i).x, path.get(i).y, path.get(i + 1).x, path.get(i + 1).y);
+        return intersections;
+    }
+
+    /**
+     * Marks the cells met by the closed bounds of some obstacle.
+     */
+    private boolean[] rasterize(int cellSize, int columns, int rows)
+    {
+        boolean[] blocked = new boolean[columns * rows];
+        for (Rectangle r : conf.getObstacles()) {
+            if (r.isEmpty())
+                continue;
+            int c0 = clamp(Math.floorDiv(r.x, cellSize), columns), c1 = clamp(Math.floorDiv(r.x + r.width, cellSize), columns);
+            int r0 = clamp(Math.floorDiv(r.y, cellSize), rows), r1 = clamp(Math.floorDiv(r.y + r.height, cellSize), rows);
+            // an obstacle edge that lies exactly on a cell boundary also meets the cell before it
+            if (r.x % cellSize == 0)
+                c0 = clamp(c0 - 1, columns);
+            if (r.y % cellSize == 0)
+                r0 = clamp(r0 - 1, rows);
+            for (int row = r0; row <= r1; row++)
+                for (int column = c0; column <= c1; column++)
+                    blocked[row * columns + column] = true;
+        }
+        return blocked;
+    }
+
+    private static int clamp(int value, int count)
+    {
+        return value < 0 ? 0 : (value >= count ? count - 1 : value);
+    }
+
+    private static int cellOf(int x, int y, int cellSize, int columns, int rows)
+    {
+        return clamp(Math.floorDiv(y, cellSize), rows) * columns + clamp(Math.floorDiv(x, cellSize), columns);
+    }
+
+    private static double octile(int column, int row, int endColumn, int endRow)
+    {
+        int dx = Math.abs(column - endColumn), dy = Math.abs(row - endRow);
+        return Math.max(dx, dy) + (DIAGONAL - 1) * Math.min(dx, dy);
+    }
+
+    private static List<Integer> cells(int[] parent, int end)
+    {
+        List<Integer> cells = new ArrayList<>();
+        for (int cell = end; cell >= 0; cell = parent[cell])
+            cells.add(cell);
+        Collections.reverse(cells);
+        return cells;
+    }
+
+    /**
+     * Turns the cells of a path into points (the start, the centres of the intermediate cells and the end) and drops
+     * every point that the previous kept point can skip without touching an obstacle.
+     */
+    private List<Point> smooth(List<Integer> cells, int cellSize, int columns)
+    {
+        List<Point> points = new ArrayList<>(cells.size() + 1);
+        points.add(new Point(conf.getStart().getX(), conf.getStart().getY()));
+        for (int i = 1; i < cells.size() - 1; i++) {
+            int cell = cells.get(i);
+            points.add(new Point((cell % columns) * cellSize + cellSize / 2, (cell / columns) * cellSize + cellSize / 2));
+        }
+        points.add(new Point(conf.getEnd().getX(), conf.getEnd().getY()));
+
+        List<Point> path = new ArrayList<>();
+        Point anchor = points.get(0);
+        path.add(anchor);
+        for (int i = 1; i < points.size() - 1; i++) {
+            Point next = points.get(i + 1);
+            if (grid.intersects(anchor.x, anchor.y, next.x, next.y)) {
+                anchor = points.get(i);
+                path.add(anchor);
+            }
+        }
+        path.add(points.get(points.size() - 1));
+        return path;
+    }
+
+    /**
+     * Outcome of a search: a path or the statement that none exists at the finest grid searched.
+     */
+    public static class Result
+    {
+        private final Status status;
+        private final List<Point> path;
+        private final int intersections, cellSize, expanded;
+
+        private Result(Status status, List<Point> path, int intersections, int cellSize, int expanded) {
+            this.status = status;
+            this.path = path;
+            this.intersections = intersections;
+            this.cellSize = cellSize;
+            this.expanded = expanded;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isFound() {
+            return status == Status.FOUND;
+        }
+
+        /**
+         * Returns the points of the path, start and end included, or null if no path was found.
+         */
+        public List<Point> getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the number of obstacles touched by the path, which is only non-zero when the start or the end is
+         * next to an obstacle.
+         */
+        public int getIntersections() {
+            return intersections;
+        }
+
+        /**
+         * Returns the side of the cells of the grid that produced this result.
+         */
+        public int getCellSize() {
+            return cellSize;
+        }
+
+        /**
+         * Returns the number of cells expanded by A*, over all the grids searched.
+         */
+        public int getExpanded() {
+            return expanded;
+        }
+    }
+
+    private static class Entry implements Comparable<Entry>
+    {
+        private final int cell;
+        private final double estimate;
+
+        private Entry(int cell, double estimate) {
+            this.cell = cell;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Double.compare(estimate, other.estimate);
+        }
+    }
+}
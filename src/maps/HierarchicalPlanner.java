@@ -0,0 +1,562 @@
+package maps;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+import interf.IPath;
+import interf.IPoint;
+import interf.IUIConfiguration;
+
+/**
+ * Coarse-to-fine planner for maps far larger than those of {@link Maps}, on which the genetic algorithm, sampling
+ * waypoints over the whole map, almost never finds a corridor.
+ * <p>
+ * The corridor is found first, by A* over a fine grid with the rules of {@link GridPlanner}: a cell is blocked when
+ * the closed bounds of some obstacle meet it and diagonal moves never cut the corner of a blocked cell, so the centres
+ * of consecutive cells of the corridor can be joined without intersections. The fine grid is never built for the
+ * whole map: it is split into pages of {@value #PAGE} x {@value #PAGE} cells, and a page is only filled when the
+ * search reaches it. The search starts with cells of {@value GridPlanner#DEFAULT_CELL_SIZE} pixels and halves them
+ * when no corridor is found, down to 1 pixel. Alongside the A*, a breadth-first flood grows from the cell of the end,
+ * one cell for each cell the A* closes; moves on the grid are symmetric, so when the flood runs out of cells before
+ * meeting the A*, the end is closed off at that cell size and the search gives up.
+ * <p>
+ * The corridor is then cut into legs that each cross {@value #LEG_CELLS} cells of a coarse grid of at most
+ * {@value #MAX_CELLS} cells, and every leg is planned by {@link PathPlanner} on a small map of its own: the bounding
+ * box of the leg, widened by one coarse cell, with only the obstacles that meet it. A leg that the genetic algorithm
+ * leaves with more intersections than the corridor itself is planned again on the same small map with a
+ * {@link VisibilityGraph} and, if that is no better, takes the points of the corridor, so no leg is ever worse than
+ * the corridor. Finally {@link LocalSearch} shortens the joined path across the ends of the legs.
+ * <p>
+ * Apart from the coarse grid, whose size is bounded, the memory and the time spent depend on the area the search
+ * explores and on the obstacles along the corridor, not on the area of the map. When the end cannot be reached, each
+ * search explores at most about twice the smaller of the regions around the start and around the end, so an end
+ * walled in a small area is given up quickly however large the map is.
+ */
+public class HierarchicalPlanner
+{
+    /**
+     * Upper bound on the number of cells of the coarse grid when its cell size is chosen automatically.
+     */
+    public static final int MAX_CELLS = 1 << 16;
+    /**
+     * Number of coarse cells crossed by each leg.
+     */
+    public static final int LEG_CELLS = 8;
+    /**
+     * Side of the pages of the fine grid, in fine cells.
+     */
+    public static final int PAGE = 32;
+    private static final int MIN_CELL_SIZE = 16;
+    private static final float DIAGONAL = (float) Math.sqrt(2);
+    private static final int POPULATION_SIZE = 100;
+    private static final double MUTATION_RATE = 0.05;
+
+    private final IUIConfiguration conf;
+    private final ObstacleGrid grid;
+    private final Rectangle[] obstacles;
+    private final int cellSize, columns, rows;
+    /**
+     * Obstacles met by each coarse cell, in compressed sparse rows, to fill the pages of the fine grid and to collect
+     * the obstacles of a leg.
+     */
+    private final int[] cellStart, cellItems;
+    private final long seed;
+
+    private int corridorCells, corridorCellSize, legs, fallbackLegs, intersections;
+    private int stamp;
+
+    /**
+     * Creates a planner with a cell size chosen from the size of the map and a random seed.
+     *
+     * @param conf the map, including the start and the end of the path
+     */
+    public HierarchicalPlanner(IUIConfiguration conf)
+    {
+        this(conf, 0, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Creates a planner and builds its coarse grid.
+     *
+     * @param conf the map, including the start and the end of the path
+     * @param cellSize the side of the coarse cells, in pixels, or 0 to choose it from the size of the map
+     * @param seed the seed from which the random streams of the legs are split
+     */
+    public HierarchicalPlanner(IUIConfiguration conf, int cellSize, long seed)
+    {
+        if (cellSize < 0)
+            throw new IllegalArgumentException("cellSize must not be negative: " + cellSize);
+        if (cellSize == 0) {
+            cellSize = MIN_CELL_SIZE;
+            while ((long) (conf.getWidth() / cellSize + 1) * (conf.getHeight() / cellSize + 1) > MAX_CELLS)
+                cellSize *= 2;
+        }
+
+        this.conf = conf;
+        this.grid = new ObstacleGrid(conf.getObstacles(), conf.getWidth(), conf.getHeight());
+        this.cellSize = cellSize;
+        this.columns = Math.max(1, (conf.getWidth() + cellSize - 1) / cellSize);
+        this.rows = Math.max(1, (conf.getHeight() + cellSize - 1) / cellSize);
+        this.seed = seed;
+
+        List<Rectangle> nonEmpty = new ArrayList<>(conf.getObstacles().size());
+        for (Rectangle r : conf.getObstacles())
+            if (!r.isEmpty())
+                nonEmpty.add(r);
+        this.obstacles = nonEmpty.toArray(new Rectangle[0]);
+
+        // the same counting pass, prefix sum and fill pass as ObstacleGrid
+        int[] counts = new int[columns * rows + 1];
+        for (Rectangle r : obstacles)
+            for (int row = rowOf(r.y); row <= rowOf(r.y + r.height); row++)
+                for (int column = columnOf(r.x); column <= columnOf(r.x + r.width); column++)
+                    counts[row * columns + column + 1]++;
+        for (int i = 1; i < counts.length; i++)
+            counts[i] += counts[i - 1];
+        this.cellStart = counts.clone();
+        this.cellItems = new int[counts[counts.length - 1]];
+        for (int i = 0; i < obstacles.length; i++) {
+            Rectangle r = obstacles[i];
+            for (int row = rowOf(r.y); row <= rowOf(r.y + r.height); row++)
+                for (int column = columnOf(r.x); column <= columnOf(r.x + r.width); column++)
+                    cellItems[counts[row * columns + column]++] = i;
+        }
+    }
+
+    private int columnOf(int x)
+    {
+        int column = Math.floorDiv(x, cellSize);
+        return column < 0 ? 0 : (column >= columns ? columns - 1 : column);
+    }
+
+    private int rowOf(int y)
+    {
+        int row = Math.floorDiv(y, cellSize);
+        return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+    }
+
+    /**
+     * Plans a path from the start to the end of the map.
+     *
+     * @param legGenerations the maximum number of generations of the genetic algorithm on each leg
+     * @return the path, start and end included, or null if not even the 1 pixel grid has a corridor between them
+     */
+    public IPath plan(int legGenerations)
+    {
+        corridorCells = 0;
+        corridorCellSize = 0;
+        legs = 0;
+        fallbackLegs = 0;
+        intersections = 0;
+
+        List<Point> corridor = null;
+        for (int fine = GridPlanner.DEFAULT_CELL_SIZE; corridor == null && fine >= 1; fine /= 2) {
+            corridor = corridor(fine);
+            corridorCellSize = fine;
+        }
+        if (corridor == null)
+            return null;
+        corridorCells = corridor.size();
+
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] seen = new int[obstacles.length];
+        stamp = 0;
+        List<Point> path = new ArrayList<>();
+        path.add(corridor.get(0));
+        int a = 0, crossed = 0;
+        for (int i = 1; i < corridor.size(); i++) {
+            if (coarseCell(corridor.get(i)) != coarseCell(corridor.get(i - 1)))
+                crossed++;
+            if (i == corridor.size() - 1 || crossed == LEG_CELLS) {
+                legs++;
+                List<Point> leg = leg(corridor.subList(a, i + 1), legGenerations, random.split(), seen);
+                path.addAll(leg.subList(1, leg.size()));
+                a = i;
+                crossed = 0;
+            }
+        }
+
+        Population joined = new Population(1, Math.max(2, path.size()));
+        for (Point p : path)
+            joined.add(0, p.x, p.y);
+        try (LocalSearch localSearch = new LocalSearch(grid, 1)) {
+            if (!localSearch.improve(joined, 0))
+                joined.score(0, grid);
+        }
+        intersections = joined.getIntersections(0);
+        return joined.toPath(0);
+    }
+
+    private int coarseCell(Point p)
+    {
+        return rowOf(p.y) * columns + columnOf(p.x);
+    }
+
+    /**
+     * Runs A* over a fine grid filled page by page.
+     *
+     * @param fine the side of the fine cells, in pixels
+     * @return the start, the centres of the cells between the cell of the start and the cell of the end, and the end,
+     *         or null if no chain of open cells joins them
+     */
+    private List<Point> corridor(int fine)
+    {
+        int fineColumns = Math.max(1, (conf.getWidth() + fine - 1) / fine);
+        int fineRows = Math.max(1, (conf.getHeight() + fine - 1) / fine);
+        if ((long) fineColumns * fineRows > Integer.MAX_VALUE)
+            return null;
+        int pageColumns = (fineColumns + PAGE - 1) / PAGE, pageRows = (fineRows + PAGE - 1) / PAGE;
+        Page[] pages = new Page[pageColumns * pageRows];
+
+        IPoint from = conf.getStart(), to = conf.getEnd();
+        int startColumn = clamp(Math.floorDiv(from.getX(), fine), fineColumns);
+        int startRow = clamp(Math.floorDiv(from.getY(), fine), fineRows);
+        int endColumn = clamp(Math.floorDiv(to.getX(), fine), fineColumns);
+        int endRow = clamp(Math.floorDiv(to.getY(), fine), fineRows);
+        int start = startRow * fineColumns + startColumn, end = endRow * fineColumns + endColumn;
+
+        PriorityQueue<VisibilityGraph.Entry> open = new PriorityQueue<>();
+        Page first = page(pages, startColumn, startRow, fine, fineColumns, fineRows);
+        first.cost[slot(startColumn, startRow)] = 0;
+        open.add(new VisibilityGraph.Entry(start, octile(startColumn, startRow, endColumn, endRow)));
+
+        // the flood from the end, a queue of cells that is dropped once it meets a cell closed by the A*
+        int[] flood = { end };
+        int floodHead = 0, floodTail = 1;
+        page(pages, endColumn, endRow, fine, fineColumns, fineRows).reached[slot(endColumn, endRow)] = true;
+
+        while (!open.isEmpty()) {
+            int cell = open.poll().node;
+            int column = cell % fineColumns, row = cell / fineColumns;
+            Page page = page(pages, column, row, fine, fineColumns, fineRows);
+            int slot = slot(column, row);
+            if (page.closed[slot])
+                continue;
+            page.closed[slot] = true;
+            if (page.reached[slot])
+                flood = null;
+
+            if (flood != null) {
+                if (floodHead == floodTail)
+                    return null;
+                int floodCell = flood[floodHead++];
+                int floodColumn = floodCell % fineColumns, floodRow = floodCell / fineColumns;
+                for (int dy = -1; dy <= 1 && flood != null; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int c = floodColumn + dx, r = floodRow + dy;
+                        if (!canMove(pages, floodColumn, floodRow, dx, dy, fine, fineColumns, fineRows, start, end))
+                            continue;
+                        Page nextPage = page(pages, c, r, fine, fineColumns, fineRows);
+                        int nextSlot = slot(c, r);
+                        if (nextPage.closed[nextSlot]) {
+                            flood = null;
+                            break;
+                        }
+                        if (nextPage.reached[nextSlot])
+                            continue;
+                        nextPage.reached[nextSlot] = true;
+                        if (floodTail == flood.length)
+                            flood = Arrays.copyOf(flood, 2 * flood.length);
+                        flood[floodTail++] = r * fineColumns + c;
+                    }
+                }
+            }
+
+            if (cell == end) {
+                List<Point> points = new ArrayList<>();
+                points.add(new Point(to.getX(), to.getY()));
+                for (int x = column, y = row, step = page.step[slot]; step != 0; ) {
+                    x -= (step - 1) % 3 - 1;
+                    y -= (step - 1) / 3 - 1;
+                    step = page(pages, x, y, fine, fineColumns, fineRows).step[slot(x, y)];
+                    if (step != 0)
+                        points.add(new Point(x * fine + fine / 2, y * fine + fine / 2));
+                }
+                points.add(new Point(from.getX(), from.getY()));
+                Collections.reverse(points);
+                return points;
+            }
+
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int c = column + dx, r = row + dy;
+                    if (!canMove(pages, column, row, dx, dy, fine, fineColumns, fineRows, start, end))
+                        continue;
+                    int next = r * fineColumns + c;
+                    Page nextPage = page(pages, c, r, fine, fineColumns, fineRows);
+                    int nextSlot = slot(c, r);
+                    if (nextPage.closed[nextSlot])
+                        continue;
+                    float candidate = page.cost[slot] + (dx != 0 && dy != 0 ? DIAGONAL : 1);
+                    if (candidate >= nextPage.cost[nextSlot])
+                        continue;
+                    nextPage.cost[nextSlot] = candidate;
+                    nextPage.step[nextSlot] = (byte) ((dy + 1) * 3 + dx + 2);
+                    open.add(new VisibilityGraph.Entry(next, candidate + octile(c, r, endColumn, endRow)));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether a move from a fine cell to one of its neighbours is allowed: the cells of the start and the end are
+     * always open, and diagonal moves may not cut the corner of a blocked cell. The rule is symmetric, so the flood
+     * from the end can use it backwards.
+     */
+    private boolean canMove(Page[] pages, int column, int row, int dx, int dy, int fine, int fineColumns, int fineRows,
+                            int start, int end)
+    {
+        int c = column + dx, r = row + dy;
+        if ((dx == 0 && dy == 0) || c < 0 || r < 0 || c >= fineColumns || r >= fineRows)
+            return false;
+        if (blocked(pages, c, r, fine, fineColumns, fineRows, start, end))
+            return false;
+        return dx == 0 || dy == 0 || (!blocked(pages, c, row, fine, fineColumns, fineRows, start, end)
+                                      && !blocked(pages, column, r, fine, fineColumns, fineRows, start, end));
+    }
+
+    private boolean blocked(Page[] pages, int column, int row, int fine, int fineColumns, int fineRows, int start,
+                            int end)
+    {
+        int cell = row * fineColumns + column;
+        return cell != start && cell != end
+                && page(pages, column, row, fine, fineColumns, fineRows).blocked[slot(column, row)];
+    }
+
+    private static int slot(int column, int row)
+    {
+        return (row % PAGE) * PAGE + column % PAGE;
+    }
+
+    /**
+     * Returns the page of a fine cell, filling it the first time: a cell is blocked when the closed bounds of some
+     * obstacle meet it, as in {@link GridPlanner}.
+     */
+    private Page page(Page[] pages, int column, int row, int fine, int fineColumns, int fineRows)
+    {
+        int pageColumns = (fineColumns + PAGE - 1) / PAGE;
+        int index = (row / PAGE) * pageColumns + column / PAGE;
+        Page page = pages[index];
+        if (page != null)
+            return page;
+
+        page = new Page();
+        int c0 = column / PAGE * PAGE, r0 = row / PAGE * PAGE;
+        int c1 = Math.min(fineColumns, c0 + PAGE) - 1, r1 = Math.min(fineRows, r0 + PAGE) - 1;
+        // an obstacle whose edge lies on the first pixel after the page still meets its last cells
+        int x0 = c0 * fine - 1, y0 = r0 * fine - 1, x1 = (c1 + 1) * fine, y1 = (r1 + 1) * fine;
+        for (int cr = rowOf(y0); cr <= rowOf(y1); cr++) {
+            for (int cc = columnOf(x0); cc <= columnOf(x1); cc++) {
+                int cell = cr * columns + cc;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    Rectangle r = obstacles[cellItems[i]];
+                    int fc0 = Math.floorDiv(r.x, fine), fc1 = Math.floorDiv(r.x + r.width, fine);
+                    int fr0 = Math.floorDiv(r.y, fine), fr1 = Math.floorDiv(r.y + r.height, fine);
+                    // an obstacle edge that lies exactly on a cell boundary also meets the cell before it
+                    if (r.x % fine == 0)
+                        fc0--;
+                    if (r.y % fine == 0)
+                        fr0--;
+                    fc0 = clamp(fc0, fineColumns);
+                    fc1 = clamp(fc1, fineColumns);
+                    fr0 = clamp(fr0, fineRows);
+                    fr1 = clamp(fr1, fineRows);
+                    for (int y = Math.max(fr0, r0); y <= Math.min(fr1, r1); y++)
+                        for (int x = Math.max(fc0, c0); x <= Math.min(fc1, c1); x++)
+                            page.blocked[slot(x, y)] = true;
+                }
+            }
+        }
+        pages[index] = page;
+        return page;
+    }
+
+    private static int clamp(int value, int count)
+    {
+        return value < 0 ? 0 : (value >= count ? count - 1 : value);
+    }
+
+    private static double octile(int column, int row, int endColumn, int endRow)
+    {
+        int dx = Math.abs(column - endColumn), dy = Math.abs(row - endRow);
+        return Math.max(dx, dy) + (DIAGONAL - 1) * Math.min(dx, dy);
+    }
+
+    /**
+     * Plans one leg on a map made of the bounding box of its part of the corridor, widened by one coarse cell, and of
+     * the obstacles that meet it.
+     *
+     * @param corridor the part of the corridor that the leg replaces
+     * @param seen the number of the last leg that took each obstacle
+     * @return the points of the leg in map coordinates, from the first to the last point of <code>corridor</code>,
+     *         with no more intersections than <code>corridor</code>
+     */
+    private List<Point> leg(List<Point> corridor, int generations, SplittableRandom rand, int[] seen)
+    {
+        Point from = corridor.get(0), to = corridor.get(corridor.size() - 1);
+        int c0 = columns, c1 = 0, r0 = rows, r1 = 0;
+        for (Point p : corridor) {
+            c0 = Math.min(c0, columnOf(p.x));
+            c1 = Math.max(c1, columnOf(p.x));
+            r0 = Math.min(r0, rowOf(p.y));
+            r1 = Math.max(r1, rowOf(p.y));
+        }
+        c0 = Math.max(0, c0 - 1);
+        r0 = Math.max(0, r0 - 1);
+        c1 = Math.min(columns - 1, c1 + 1);
+        r1 = Math.min(rows - 1, r1 + 1);
+        int x0 = c0 * cellSize, y0 = r0 * cellSize;
+        int width = Math.min(conf.getWidth(), (c1 + 1) * cellSize) - x0;
+        int height = Math.min(conf.getHeight(), (r1 + 1) * cellSize) - y0;
+
+        // each obstacle once, even when it meets several cells of the window
+        int stamp = ++this.stamp;
+        List<Rectangle> local = new ArrayList<>();
+        for (int row = r0; row <= r1; row++) {
+            for (int column = c0; column <= c1; column++) {
+                int cell = row * columns + column;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int k = cellItems[i];
+                    if (seen[k] != stamp) {
+                        seen[k] = stamp;
+                        Rectangle r = obstacles[k];
+                        local.add(new Rectangle(r.x - x0, r.y - y0, r.width, r.height));
+                    }
+                }
+            }
+        }
+        impl.UIConfiguration window = new impl.UIConfiguration(width, height, local);
+        window.setStart(new impl.Point(from.x - x0, from.y - y0));
+        window.setEnd(new impl.Point(to.x - x0, to.y - y0));
+
+        List<Point> fallback = smooth(corridor);
+        int limit = countIntersections(fallback, 0, 0);
+
+        PathPlanner planner = new PathPlanner(window, POPULATION_SIZE, MUTATION_RATE, rand);
+        IPath path = planner.plan(generations);
+        List<Point> points = new ArrayList<>(path.getPoints().size());
+        for (IPoint p : path.getPoints())
+            points.add(new Point(p.getX(), p.getY()));
+        if (countIntersections(points, x0, y0) > limit) {
+            fallbackLegs++;
+            points = VisibilityGraph.shortestPath(window, new ObstacleGrid(local, width, height));
+            if (points == null || countIntersections(points, x0, y0) > limit)
+                return fallback;
+        }
+
+        for (Point p : points)
+            p.translate(x0, y0);
+        return points;
+    }
+
+    /**
+     * Counts the intersections of a path with the obstacles of the whole map, after moving it by
+     * <code>(dx, dy)</code>.
+     */
+    private int countIntersections(List<Point> points, int dx, int dy)
+    {
+        int count = 0;
+        for (int i = 0; i < points.size() - 1; i++) {
+            Point a = points.get(i), b = points.get(i + 1);
+            count += grid.countIntersections(a.x + dx, a.y + dy, b.x + dx, b.y + dy);
+        }
+        return count;
+    }
+
+    /**
+     * Drops every point of a part of the corridor that the previous kept point can skip without touching an
+     * obstacle, as {@link GridPlanner} does.
+     */
+    private List<Point> smooth(List<Point> corridor)
+    {
+        List<Point> path = new ArrayList<>();
+        Point anchor = corridor.get(0);
+        path.add(new Point(anchor));
+        for (int i = 1; i < corridor.size() - 1; i++) {
+            Point next = corridor.get(i + 1);
+            if (grid.intersects(anchor.x, anchor.y, next.x, next.y)) {
+                anchor = corridor.get(i);
+                path.add(new Point(anchor));
+            }
+        }
+        path.add(new Point(corridor.get(corridor.size() - 1)));
+        return path;
+    }
+
+    /**
+     * Returns the number of points of the corridor found by the last call to {@link #plan(int)}: the start, the
+     * centres of the fine cells between and the end.
+     */
+    public int getCorridorCells() {
+        return corridorCells;
+    }
+
+    /**
+     * Returns the side, in pixels, of the fine cells of the corridor found by the last call to {@link #plan(int)}.
+     */
+    public int getCorridorCellSize() {
+        return corridorCellSize;
+    }
+
+    /**
+     * Returns the number of legs planned by the last call to {@link #plan(int)}.
+     */
+    public int getLegs() {
+        return legs;
+    }
+
+    /**
+     * Returns the number of legs of the last call to {@link #plan(int)} that the genetic algorithm left with more
+     * intersections than the corridor and that were planned again deterministically.
+     */
+    public int getFallbackLegs() {
+        return fallbackLegs;
+    }
+
+    /**
+     * Returns the number of intersections of the path returned by the last call to {@link #plan(int)}.
+     */
+    public int getIntersections() {
+        return intersections;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Fine cells of a page: whether they are blocked and the state of the search, in 7 bytes per cell.
+     */
+    private static class Page
+    {
+        private final boolean[] blocked = new boolean[PAGE * PAGE];
+        private final boolean[] closed = new boolean[PAGE * PAGE];
+        /**
+         * Whether the flood from the end has reached each cell.
+         */
+        private final boolean[] reached = new boolean[PAGE * PAGE];
+        private final float[] cost = new float[PAGE * PAGE];
+        /**
+         * The move that reached each cell, <code>(dy + 1) * 3 + dx + 2</code>, or 0 for the start and unreached cells.
+         */
+        private final byte[] step = new byte[PAGE * PAGE];
+
+        private Page() {
+            Arrays.fill(cost, Float.POSITIVE_INFINITY);
+        }
+    }
+}
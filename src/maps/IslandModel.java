@@ -0,0 +1,338 @@
+package maps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import interf.IUIConfiguration;
+
+/**
+ * Island model of the genetic algorithm. Several independent populations (islands) run the select / crossover /
+ * mutate loop of {@link PathDrawingSample} on their own worker thread, and every <code>migrationInterval</code>
+ * generations each island sends copies of its best individuals to the next island of a ring, where they replace the
+ * worst ones.
+ * <p>
+ * Migrants travel through two mailboxes per island, {@link AtomicReferenceArray} slots that the sender fills and the
+ * receiver empties with <code>getAndSet(null)</code>; even and odd migrations use different slots, so an island that
+ * runs ahead can post its next batch before a slower one has collected the last. Islands only wait for each other at
+ * migrations, on a {@link Phaser}: every batch is posted before the barrier and collected right after it. The decision
+ * to stop is taken by the barrier itself, in {@link Phaser#onAdvance(int, int)}, while every island is waiting, so
+ * all of them stop at the first migration after some island finds a path without intersections.
+ * <p>
+ * Each island draws from its own {@link SplittableRandom}, split from the seed of the run in island order, so a given
+ * seed and number of islands always give the same result, however the threads are scheduled.
+ */
+public class IslandModel
+{
+    private final IUIConfiguration conf;
+    private final int islands, islandSize, migrationInterval, migrants;
+    private final double mutationRate;
+    private final long seed;
+
+    private final AtomicReferenceArray<Population> mailboxes;
+    /**
+     * The index and the occupancy of the map, taken once per run and shared by the islands.
+     */
+    private ObstacleGrid index;
+    private OccupancyGrid occupancy;
+    private final AtomicBoolean solved = new AtomicBoolean();
+    private Phaser migrations;
+    /**
+     * Whether the islands stop after the last migration, set when the barrier opens.
+     */
+    private volatile boolean stopping;
+    private final AtomicLong firstSolution = new AtomicLong(-1);
+
+    private Population best;
+    private int bestIntersections = Integer.MAX_VALUE;
+    private int bestGeneration;
+    private int bestIsland = -1;
+    private long startTime;
+
+    /**
+     * Creates an island model.
+     *
+     * @param conf the map
+     * @param islands the number of islands, each one run by its own thread
+     * @param islandSize the number of individuals of each island
+     * @param migrationInterval the number of generations between migrations
+     * @param migrants the number of individuals that each island sends in a migration
+     * @param mutationRate the probability that an individual is mutated
+     */
+    public IslandModel(IUIConfiguration conf, int islands, int islandSize, int migrationInterval, int migrants,
+                       double mutationRate)
+    {
+        this(conf, islands, islandSize, migrationInterval, migrants, mutationRate, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Creates an island model whose runs can be reproduced.
+     *
+     * @param conf the map
+     * @param islands the number of islands, each one run by its own thread
+     * @param islandSize the number of individuals of each island
+     * @param migrationInterval the number of generations between migrations
+     * @param migrants the number of individuals that each island sends in a migration
+     * @param mutationRate the probability that an individual is mutated
+     * @param seed the seed from which the random streams of the islands are split
+     */
+    public IslandModel(IUIConfiguration conf, int islands, int islandSize, int migrationInterval, int migrants,
+                       double mutationRate, long seed)
+    {
+        if (islands < 1)
+            throw new IllegalArgumentException("islands must be at least 1: " + islands);
+        if (islandSize < 2)
+            throw new IllegalArgumentException("islandSize must be at least 2: " + islandSize);
+        if (migrationInterval < 1)
+            throw new IllegalArgumentException("migrationInterval must be positive: " + migrationInterval);
+        if (migrants < 0 || migrants >= islandSize)
+            throw new IllegalArgumentException("migrants must be in [0, " + (islandSize - 1) + "]: " + migrants);
+
+        this.conf = conf;
+        this.islands = islands;
+        this.islandSize = islandSize;
+        this.migrationInterval = migrationInterval;
+        this.migrants = migrants;
+        this.mutationRate = mutationRate;
+        this.seed = seed;
+        this.mailboxes = new AtomicReferenceArray<>(2 * islands);
+    }
+
+    /**
+     * Runs every island for at most the given number of generations, or until some island finds a path without
+     * intersections, and keeps the best individual found.
+     *
+     * @param generations the maximum number of generations of each island
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the islands
+     */
+    public void run(int generations) throws InterruptedException
+    {
+        startTime = System.nanoTime();
+        index = ObstacleGrid.of(conf);
+        occupancy = OccupancyGrid.of(conf);
+        stopping = false;
+        migrations = new Phaser(islands) {
+            @Override
+            protected boolean onAdvance(int phase, int registeredParties) {
+                // every island still running is waiting, so none can set solved while the decision is taken
+                stopping = solved.get();
+                return registeredParties == 0;
+            }
+        };
+        SplittableRandom random = new SplittableRandom(seed);
+        ExecutorService executor = Executors.newFixedThreadPool(islands);
+        try {
+            List<Island> workers = new ArrayList<>(islands);
+            List<Future<?>> futures = new ArrayList<>(islands);
+            for (int i = 0; i < islands; i++) {
+                Island island = new Island(i, generations, random.split());
+                workers.add(island);
+                futures.add(executor.submit(island));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // the other islands would wait for it forever at the next migration
+                    migrations.forceTermination();
+                    throw new IllegalStateException("island failed", e.getCause());
+                }
+            }
+
+            for (Island island : workers) {
+                if (island.found && (best == null || island.better(bestIntersections, best.getFitness(0)))) {
+                    best = island.best;
+                    bestIntersections = island.best.getIntersections(0);
+                    bestGeneration = island.bestGeneration;
+                    bestIsland = island.id;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the best individual found, in a population of size 1, or null if {@link #run(int)} has not been called.
+     */
+    public Population getBest() {
+        return best;
+    }
+
+    public double getBestFitness() {
+        return best == null ? Double.MAX_VALUE : best.getFitness(0);
+    }
+
+    public int getBestIntersections() {
+        return bestIntersections;
+    }
+
+    public int getBestGeneration() {
+        return bestGeneration;
+    }
+
+    public int getBestIsland() {
+        return bestIsland;
+    }
+
+    /**
+     * Returns the time from the start of {@link #run(int)} until the first path without intersections was found.
+     *
+     * @return the time in nanoseconds, or -1 if no such path was found
+     */
+    public long getTimeToFirstSolution() {
+        long time = firstSolution.get();
+        return time < 0 ? -1 : time - startTime;
+    }
+
+    public int getIslands() {
+        return islands;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Fills <code>order</code> with the indices of the best (or the worst) individuals of a population, by
+     * repeated scans; the number of migrants is small compared to the size of an island.
+     */
+    static void select(Population population, int[] order, boolean fittest)
+    {
+        for (int k = 0; k < order.length; k++) {
+            int chosen = -1;
+            for (int i = 0; i < population.size(); i++) {
+                if (contains(order, k, i))
+                    continue;
+                if (chosen < 0 || (fittest ? population.getFitness(i) < population.getFitness(chosen)
+                                           : population.getFitness(i) > population.getFitness(chosen)))
+                    chosen = i;
+            }
+            order[k] = chosen;
+        }
+    }
+
+    private static boolean contains(int[] values, int length, int value)
+    {
+        for (int k = 0; k < length; k++)
+            if (values[k] == value)
+                return true;
+        return false;
+    }
+
+    private class Island implements Runnable
+    {
+        private final int id, generations;
+        private final SplittableRandom rand;
+        private final Population best = new Population(1, PathDrawingSample.MAX_POINTS);
+        private boolean found;
+        private int bestGeneration;
+
+        private Island(int id, int generations, SplittableRandom rand) {
+            this.id = id;
+            this.generations = generations;
+            this.rand = rand;
+        }
+
+        private boolean better(int intersections, double fitness)
+        {
+            int mine = best.getIntersections(0);
+            return mine < intersections || (mine == intersections && best.getFitness(0) < fitness);
+        }
+
+        @Override
+        public void run()
+        {
+            Population population = new Population(islandSize, PathDrawingSample.MAX_POINTS);
+            Population offspring = new Population(islandSize, PathDrawingSample.MAX_POINTS);
+            int[] selected = new int[islandSize];
+            int[] order = new int[migrants];
+            int next = (id + 1) % islands;
+            int migration = 0;
+
+            try (FitnessEvaluator evaluator = new FitnessEvaluator(index, 1)) {
+                PathDrawingSample.initializePopulation(population, conf, occupancy, rand);
+                evaluator.evaluate(population);
+
+                for (int generation = 0; generation < generations; generation++) {
+                    PathDrawingSample.select(population, selected, rand);
+                    PathDrawingSample.crossover(population, selected, offspring, rand);
+                    PathDrawingSample.mutate(offspring, mutationRate, conf, occupancy, rand);
+                    evaluator.evaluate(offspring);
+
+                    Population swap = population;
+                    population = offspring;
+                    offspring = swap;
+
+                    track(population, generation);
+
+                    if ((generation + 1) % migrationInterval == 0) {
+                        int slots = (migration++ % 2) * islands;
+                        if (migrants > 0 && islands > 1)
+                            send(population, order, slots + next);
+                        migrations.arriveAndAwaitAdvance();
+                        if (stopping)
+                            break;
+                        receive(population, order, slots + id);
+                    }
+                }
+            } finally {
+                // the islands that go on must not wait for this one at their next migrations
+                migrations.arriveAndDeregister();
+            }
+        }
+
+        private void track(Population population, int generation)
+        {
+            for (int i = 0; i < population.size(); i++) {
+                if (!found || population.getIntersections(i) < best.getIntersections(0)
+                        || (population.getIntersections(i) == best.getIntersections(0)
+                            && population.getFitness(i) < best.getFitness(0))) {
+                    best.copy(0, population, i);
+                    bestGeneration = generation;
+                    found = true;
+                }
+            }
+
+            if (best.getIntersections(0) == 0) {
+                firstSolution.compareAndSet(-1, System.nanoTime());
+                solved.set(true);
+            }
+        }
+
+        /**
+         * Publishes copies of the best individuals of the population in a mailbox of the next island.
+         */
+        private void send(Population population, int[] order, int mailbox)
+        {
+            Population batch = new Population(migrants, population.getCapacity());
+            select(population, order, true);
+            for (int k = 0; k < migrants; k++)
+                batch.copy(k, population, order[k]);
+            mailboxes.set(mailbox, batch);
+        }
+
+        /**
+         * Replaces the worst individuals of the population with the migrants waiting in a mailbox of this island.
+         */
+        private void receive(Population population, int[] order, int mailbox)
+        {
+            Population batch = mailboxes.getAndSet(mailbox, null);
+            if (batch == null)
+                return;
+
+            select(population, order, false);
+            for (int k = 0; k < batch.size(); k++)
+                population.copy(order[k], batch, k);
+        }
+    }
+}
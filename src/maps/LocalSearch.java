@@ -0,0 +1,205 @@
+package maps;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Memetic stage of the genetic algorithm: a local search that shortens individual paths without adding
+ * intersections. Each pass over a path
+ * <ul>
+ * <li>drops every waypoint whose neighbours can be joined directly without touching more obstacles, and</li>
+ * <li>pulls every remaining waypoint toward the straight line between its neighbours, as far as it can go without
+ * touching more obstacles, which makes the path hug the corners it turns around.</li>
+ * </ul>
+ * Passes are repeated until nothing changes. Like {@link FitnessEvaluator}, several individuals can be improved in
+ * parallel on a {@link ForkJoinPool} of configurable parallelism.
+ */
+public class LocalSearch implements AutoCloseable
+{
+    private static final int MAX_PASSES = 8;
+    /**
+     * Fractions of the way to the line between the neighbours tried, in order, when pulling a waypoint.
+     */
+    private static final double[] PULL = { 1, 0.5, 0.25, 0.125, 0.0625, 0.03125 };
+
+    private final CollisionChecker grid;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a local search.
+     *
+     * @param grid the obstacles of the map
+     * @param parallelism the number of worker threads to use (1 works on the calling thread)
+     */
+    public LocalSearch(CollisionChecker grid, int parallelism)
+    {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+
+        this.grid = grid;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * Improves the <code>count</code> best individuals of a scored population, in parallel, and scores them again.
+     *
+     * @param population the scored population, which is changed in place
+     * @param count the number of individuals to improve
+     */
+    public void improveBest(Population population, int count)
+    {
+        int[] best = best(population, Math.min(count, population.size()));
+        if (pool == null || best.length == 1) {
+            for (int i : best)
+                improve(population, i);
+        } else {
+            pool.invoke(new ImproveTask(population, best, 0, best.length));
+        }
+    }
+
+    /**
+     * Shortens one individual and scores it again.
+     *
+     * @param population the population of the individual
+     * @param i the individual
+     * @return true if the path changed
+     */
+    public boolean improve(Population population, int i)
+    {
+        boolean changed = false;
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            boolean dropped = drop(population, i), pulled = pull(population, i);
+            if (!dropped && !pulled)
+                break;
+            changed = true;
+        }
+        if (changed)
+            population.score(i, grid);
+        return changed;
+    }
+
+    /**
+     * Removes the waypoints that can be skipped; at least one point is kept between the start and the end, as the
+     * mutation operator expects.
+     */
+    private boolean drop(Population population, int i)
+    {
+        boolean changed = false;
+        int k = 1;
+        while (k < population.length(i) - 1 && population.length(i) > 3) {
+            int ax = population.getX(i, k - 1), ay = population.getY(i, k - 1);
+            int bx = population.getX(i, k), by = population.getY(i, k);
+            int cx = population.getX(i, k + 1), cy = population.getY(i, k + 1);
+            int before = grid.countIntersections(ax, ay, bx, by) + grid.countIntersections(bx, by, cx, cy);
+            if (grid.countIntersections(ax, ay, cx, cy) <= before) {
+                remove(population, i, k);
+                changed = true;
+            } else {
+                k++;
+            }
+        }
+        return changed;
+    }
+
+    private static void remove(Population population, int i, int k)
+    {
+        int length = population.length(i);
+        for (int j = k; j < length - 1; j++)
+            population.set(i, j, population.getX(i, j + 1), population.getY(i, j + 1));
+        population.setLength(i, length - 1);
+    }
+
+    /**
+     * Moves each waypoint toward the closest point of the segment between its neighbours.
+     */
+    private boolean pull(Population population, int i)
+    {
+        boolean changed = false;
+        for (int k = 1; k < population.length(i) - 1; k++) {
+            int ax = population.getX(i, k - 1), ay = population.getY(i, k - 1);
+            int bx = population.getX(i, k), by = population.getY(i, k);
+            int cx = population.getX(i, k + 1), cy = population.getY(i, k + 1);
+
+            double dx = cx - ax, dy = cy - ay, squared = dx * dx + dy * dy;
+            double t = squared == 0 ? 0 : Math.max(0, Math.min(1, ((bx - ax) * dx + (by - ay) * dy) / squared));
+            double px = ax + t * dx, py = ay + t * dy;
+
+            int before = grid.countIntersections(ax, ay, bx, by) + grid.countIntersections(bx, by, cx, cy);
+            double length = distance(ax, ay, bx, by) + distance(bx, by, cx, cy);
+
+            for (double fraction : PULL) {
+                int nx = (int) Math.round(bx + fraction * (px - bx)), ny = (int) Math.round(by + fraction * (py - by));
+                if ((nx == bx && ny == by) || grid.contains(nx, ny))
+                    continue;
+                if (distance(ax, ay, nx, ny) + distance(nx, ny, cx, cy) >= length)
+                    continue;
+                if (grid.countIntersections(ax, ay, nx, ny) + grid.countIntersections(nx, ny, cx, cy) <= before) {
+                    population.set(i, k, nx, ny);
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static double distance(int x1, int y1, int x2, int y2)
+    {
+        double dx = x2 - x1, dy = y2 - y1;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns the indices of the <code>count</code> fittest individuals, by repeated scans.
+     */
+    private static int[] best(Population population, int count)
+    {
+        int[] best = new int[count];
+        for (int k = 0; k < count; k++) {
+            int chosen = -1;
+            for (int i = 0; i < population.size(); i++) {
+                boolean taken = false;
+                for (int j = 0; j < k && !taken; j++)
+                    taken = best[j] == i;
+                if (!taken && (chosen < 0 || population.getFitness(i) < population.getFitness(chosen)))
+                    chosen = i;
+            }
+            best[k] = chosen;
+        }
+        return best;
+    }
+
+    @Override
+    public void close()
+    {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    @SuppressWarnings("serial")
+    private class ImproveTask extends RecursiveAction
+    {
+        private final Population population;
+        private final int[] individuals;
+        private final int from, to;
+
+        private ImproveTask(Population population, int[] individuals, int from, int to) {
+            this.population = population;
+            this.individuals = individuals;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1) {
+                improve(population, individuals[from]);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ImproveTask(population, individuals, from, middle),
+                      new ImproveTask(population, individuals, middle, to));
+        }
+    }
+}
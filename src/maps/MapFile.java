@@ -0,0 +1,401 @@
+package maps;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.zip.CRC32;
+
+import interf.IPoint;
+import interf.IUIConfiguration;
+
+/**
+ * Map stored in a compact binary file and read through a memory mapping, so large generated maps can be shared
+ * between the planner, {@link Sweep} and the viewer instead of being generated again every time.
+ * <p>
+ * The file is little endian: a header of {@value #HEADER_SIZE} bytes (magic, version, flags, size of the map, start,
+ * end, number of obstacles, shape of the index and a CRC-32 of everything after the header), then the x, y, width
+ * and height of the obstacles as four packed <code>int</code> arrays and, if the index flag is set, the cells of an
+ * {@link ObstacleGrid} built when the file was written. An open file is a view of the mapping:
+ * {@link #getObstacles()} creates a {@link Rectangle} only when an obstacle is read, and {@link #getGrid()} copies the
+ * four arrays and the saved cells out of the mapping in bulk, without a {@link Rectangle} per obstacle and without
+ * filling the cells again; the index still holds its own copy of them on the heap. The obstacles can still be replaced
+ * with {@link #setObstacles(List)}, which detaches the view from the file.
+ */
+public class MapFile implements IUIConfiguration
+{
+    private static final int MAGIC = 0x50414d52; // "RMAP" read as little endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int FLAG_INDEX = 1;
+    private static final int CHUNK = 1 << 16;
+
+    private final Path file;
+    private final IntBuffer xs, ys, widths, heights, cellStart, cellItems;
+    private final int count, fileWidth, fileHeight, cellSize, columns, rows;
+    private final List<Rectangle> view;
+
+    private int width, height;
+    private IPoint start, end;
+    private List<Rectangle> obstacles;
+    private ObstacleGrid grid;
+
+    private MapFile(Path file, ByteBuffer buffer) throws IOException
+    {
+        this.file = file;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("not a map file: " + file);
+        int version = buffer.getInt(4);
+        if (version != VERSION)
+            throw new IOException("unsupported map file version " + version + ": " + file);
+
+        int flags = buffer.getInt(8);
+        this.width = this.fileWidth = buffer.getInt(12);
+        this.height = this.fileHeight = buffer.getInt(16);
+        this.start = new impl.Point(buffer.getInt(20), buffer.getInt(24));
+        this.end = new impl.Point(buffer.getInt(28), buffer.getInt(32));
+        this.count = buffer.getInt(36);
+        this.cellSize = buffer.getInt(40);
+        this.columns = buffer.getInt(44);
+        this.rows = buffer.getInt(48);
+        int items = buffer.getInt(52);
+
+        long cells = (flags & FLAG_INDEX) != 0 ? (long) columns * rows + 1 : 0;
+        long expected = HEADER_SIZE + 4L * (4L * count + cells + ((flags & FLAG_INDEX) != 0 ? items : 0));
+        if (count < 0 || items < 0 || columns < 0 || rows < 0 || expected != buffer.capacity())
+            throw new IOException("corrupt map file: " + file);
+
+        this.xs = ints(buffer, HEADER_SIZE, count);
+        this.ys = ints(buffer, HEADER_SIZE + 4 * count, count);
+        this.widths = ints(buffer, HEADER_SIZE + 8 * count, count);
+        this.heights = ints(buffer, HEADER_SIZE + 12 * count, count);
+        if ((flags & FLAG_INDEX) != 0) {
+            this.cellStart = ints(buffer, HEADER_SIZE + 16 * count, (int) cells);
+            this.cellItems = ints(buffer, HEADER_SIZE + 16 * count + 4 * (int) cells, items);
+        } else {
+            this.cellStart = null;
+            this.cellItems = null;
+        }
+        this.view = new Obstacles();
+        this.obstacles = view;
+    }
+
+    private static IntBuffer ints(ByteBuffer buffer, int offset, int length)
+    {
+        return buffer.slice(offset, 4 * length).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Opens a map file and checks its CRC.
+     *
+     * @param file the file
+     * @return a view of the map in the file
+     * @throws IOException if the file cannot be read, is not a map file or is corrupt
+     */
+    public static MapFile open(Path file) throws IOException
+    {
+        return open(file, true);
+    }
+
+    /**
+     * Opens a map file. Without the check of the CRC only the header is read; the pages of the obstacles are loaded
+     * when they are used.
+     *
+     * @param file the file
+     * @param verify whether to read the whole file once to check its CRC
+     * @return a view of the map in the file
+     * @throws IOException if the file cannot be read, is not a map file or, when checked, is corrupt
+     */
+    public static MapFile open(Path file, boolean verify) throws IOException
+    {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("map file too large: " + file);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        MapFile map = new MapFile(file, buffer);
+        if (verify) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(HEADER_SIZE, buffer.capacity() - HEADER_SIZE));
+            if (buffer.getInt(56) != (int) crc.getValue())
+                throw new IOException("corrupt map file: " + file);
+        }
+        return map;
+    }
+
+    /**
+     * Writes a map to a file, replacing it if it exists.
+     *
+     * @param file the file
+     * @param conf the map, with its start and end
+     * @param index whether to save the cells of an {@link ObstacleGrid} of the obstacles
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, IUIConfiguration conf, boolean index) throws IOException
+    {
+        if (conf.getStart() == null || conf.getEnd() == null)
+            throw new IllegalArgumentException("the map has no start or end");
+        List<Rectangle> obstacles = conf.getObstacles();
+        int count = obstacles.size();
+        ObstacleGrid grid = index ? new ObstacleGrid(obstacles, conf.getWidth(), conf.getHeight()) : null;
+        int[] cellStart = index ? grid.getCellStart() : new int[0];
+        int[] cellItems = index ? grid.getCellItems() : new int[0];
+        if (HEADER_SIZE + 4L * (4L * count + cellStart.length + cellItems.length) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("map too large for a map file: " + count + " obstacles");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            Body body = new Body(channel);
+            for (Rectangle r : obstacles)
+                body.putInt(r.x);
+            for (Rectangle r : obstacles)
+                body.putInt(r.y);
+            for (Rectangle r : obstacles)
+                body.putInt(r.width);
+            for (Rectangle r : obstacles)
+                body.putInt(r.height);
+            for (int v : cellStart)
+                body.putInt(v);
+            for (int v : cellItems)
+                body.putInt(v);
+            body.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(index ? FLAG_INDEX : 0);
+            header.putInt(conf.getWidth()).putInt(conf.getHeight());
+            header.putInt(conf.getStart().getX()).putInt(conf.getStart().getY());
+            header.putInt(conf.getEnd().getX()).putInt(conf.getEnd().getY());
+            header.putInt(count);
+            header.putInt(index ? grid.getCellSize() : 0).putInt(index ? grid.getColumns() : 0);
+            header.putInt(index ? grid.getRows() : 0).putInt(cellItems.length);
+            header.putInt((int) body.crc.getValue());
+            header.rewind();
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * Returns the index of the obstacles and makes {@link ObstacleGrid#of(IUIConfiguration)} return it for this map.
+     * While the obstacles are those of the file, the index is packed straight from the mapping and reuses the saved
+     * cells when the file has them and the size of the map was not changed; obstacles set with
+     * {@link #setObstacles(List)} are indexed by {@link ObstacleGrid#of(IUIConfiguration)}.
+     *
+     * @throws UncheckedIOException if the saved cells do not fit the obstacles of the file, which the CRC catches
+     *         when the file is opened with the check
+     */
+    public synchronized ObstacleGrid getGrid()
+    {
+        if (grid != null && grid.isIndexOf(this)) {
+            grid.cache();
+            return grid;
+        }
+        if (obstacles != view) {
+            grid = ObstacleGrid.of(this);
+            return grid;
+        }
+
+        RectangleBatch batch = pack();
+        if (cellStart != null && width == fileWidth && height == fileHeight) {
+            try {
+                grid = new ObstacleGrid(view, width, height, batch, cellSize, copy(cellStart), copy(cellItems));
+            } catch (IllegalArgumentException e) {
+                throw new UncheckedIOException(new IOException("corrupt map file: " + file, e));
+            }
+        } else {
+            grid = new ObstacleGrid(view, width, height, batch);
+        }
+        grid.cache();
+        return grid;
+    }
+
+    /**
+     * Copies the non-empty obstacles of the file into a batch, in bulk when none is empty.
+     */
+    private RectangleBatch pack()
+    {
+        int[] x = copy(xs), y = copy(ys), w = copy(widths), h = copy(heights);
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (w[i] <= 0 || h[i] <= 0)
+                continue;
+            x[n] = x[i];
+            y[n] = y[i];
+            w[n] = w[i];
+            h[n++] = h[i];
+        }
+        if (n == count)
+            return new RectangleBatch(x, y, w, h);
+        return new RectangleBatch(Arrays.copyOf(x, n), Arrays.copyOf(y, n), Arrays.copyOf(w, n), Arrays.copyOf(h, n));
+    }
+
+    private static int[] copy(IntBuffer buffer)
+    {
+        int[] values = new int[buffer.capacity()];
+        buffer.get(0, values);
+        return values;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of obstacles stored in the file.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Tells if the file holds the cells of an index of its obstacles.
+     */
+    public boolean hasIndex() {
+        return cellStart != null;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    @Override
+    public List<Rectangle> getObstacles() {
+        return obstacles;
+    }
+
+    @Override
+    public void setObstacles(List<Rectangle> obstacles) {
+        this.obstacles = obstacles;
+    }
+
+    @Override
+    public IPoint getStart() {
+        return start;
+    }
+
+    @Override
+    public void setStart(IPoint start) {
+        this.start = start;
+    }
+
+    @Override
+    public IPoint getEnd() {
+        return end;
+    }
+
+    @Override
+    public void setEnd(IPoint end) {
+        this.end = end;
+    }
+
+    /**
+     * Writes maps to files. The arguments are <code>name=value</code> pairs, as for {@link Sweep}: the maps of
+     * {@link Maps} to export, the directory to write <code>map&lt;n&gt;.rmap</code> into and whether to save the index.
+     * <pre>
+     * maps=0-10 dir=. index=true
+     * </pre>
+     */
+    public static void main(String[] args) throws Exception
+    {
+        List<Integer> maps = Sweep.integers("0-10");
+        Path dir = Paths.get(".");
+        boolean index = true;
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0)
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            String name = arg.substring(0, equals), value = arg.substring(equals + 1);
+            switch (name) {
+                case "maps": maps = Sweep.integers(value); break;
+                case "dir": dir = Paths.get(value); break;
+                case "index": index = Boolean.parseBoolean(value); break;
+                default: throw new IllegalArgumentException("unknown argument: " + name);
+            }
+        }
+
+        Files.createDirectories(dir);
+        for (int map : maps) {
+            Path file = dir.resolve("map" + map + ".rmap");
+            write(file, Maps.getMap(map), index);
+            System.out.println("Mapa " + map + " -> " + file + " (" + Files.size(file) + " bytes)");
+        }
+    }
+
+    /**
+     * Obstacles read from the mapping, one new {@link Rectangle} per call to {@link #get(int)}.
+     */
+    private class Obstacles extends AbstractList<Rectangle> implements RandomAccess
+    {
+        @Override
+        public Rectangle get(int i)
+        {
+            return new Rectangle(xs.get(i), ys.get(i), widths.get(i), heights.get(i));
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+    /**
+     * Body of a file being written, in chunks, with its CRC.
+     */
+    private static class Body
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private long position = HEADER_SIZE;
+
+        private Body(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void putInt(int value) throws IOException
+        {
+            if (!buffer.hasRemaining())
+                flush();
+            buffer.putInt(value);
+        }
+
+        private void flush() throws IOException
+        {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            buffer.clear();
+        }
+    }
+}
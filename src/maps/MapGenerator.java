@@ -0,0 +1,533 @@
+package maps;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import impl.UIConfiguration;
+import interf.IPoint;
+import interf.IUIConfiguration;
+
+/**
+ * Seeded generator of maps far larger and denser than those of {@link Maps}, to test how the planners scale. The same
+ * parameters and seed always give the same map.
+ * <p>
+ * The obstacles are produced one at a time and handed to a {@link Sink}, so a map can be written somewhere else
+ * without ever holding a {@link Rectangle} per obstacle; {@link #generate()} collects them into a
+ * {@link UIConfiguration}. The end is always reachable from the start:
+ * <ul>
+ * <li>{@link Layout#MAZE} is a perfect maze, in which every cell can be reached from every other one;</li>
+ * <li>{@link Layout#CORRIDORS} are walls across the map with a door at alternate ends, a single winding corridor;</li>
+ * <li>for the other layouts a polyline from the start to the end, through a few random waypoints, is reserved first,
+ * and the obstacles that come within <code>clearance</code> pixels of it are dropped and drawn again.</li>
+ * </ul>
+ */
+public class MapGenerator
+{
+    /**
+     * How the obstacles are laid out.
+     */
+    public enum Layout
+    {
+        /** Obstacles spread uniformly over the map. */
+        RANDOM,
+        /** Obstacles gathered around random centres, with normally distributed offsets. */
+        CLUSTERS,
+        /** A perfect maze of walls on a square grid. */
+        MAZE,
+        /** Walls across the whole width, each with a door at the opposite end of the previous one. */
+        CORRIDORS,
+        /** Sine waves of small blocks across the whole width, with random gaps, as in maps 7 to 10. */
+        SINE_WALLS
+    }
+
+    /**
+     * Receives the obstacles of a map as they are generated.
+     */
+    public interface Sink
+    {
+        void add(int x, int y, int width, int height);
+    }
+
+    private static final int WAYPOINTS = 4;
+    private static final int SINE_BLOCK = 4, SINE_STEP = 2;
+    private static final int MAX_ATTEMPTS = 8;
+
+    private final Layout layout;
+    private final int width, height, obstacles;
+    private final long seed;
+
+    private int minSize = 10, maxSize = 100;
+    private double sizeExponent = 0;
+    private int clearance = 8;
+    private int clusters = 0;
+    private double gapProbability = 0.1;
+
+    private impl.Point start, end;
+    private int count, dropped;
+
+    /**
+     * Creates a generator with the default sizes, clearance and gaps.
+     *
+     * @param layout how the obstacles are laid out
+     * @param width the width of the map
+     * @param height the height of the map
+     * @param obstacles the number of obstacles; for {@link Layout#MAZE} the cells are sized so that the maze has about
+     *        this many walls
+     * @param seed the seed of the map
+     */
+    public MapGenerator(Layout layout, int width, int height, int obstacles, long seed)
+    {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("the map must not be empty: " + width + "x" + height);
+        if (obstacles < 0)
+            throw new IllegalArgumentException("obstacles must not be negative: " + obstacles);
+
+        this.layout = layout;
+        this.width = width;
+        this.height = height;
+        this.obstacles = obstacles;
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the range of the sides of the obstacles of {@link Layout#RANDOM} and {@link Layout#CLUSTERS}, and of the
+     * thickness of the walls of {@link Layout#CORRIDORS}.
+     *
+     * @param minSize the smallest side, in pixels (at least 1)
+     * @param maxSize the largest side, in pixels
+     */
+    public void setSizes(int minSize, int maxSize)
+    {
+        if (minSize < 1 || maxSize < minSize)
+            throw new IllegalArgumentException("invalid sizes: " + minSize + ".." + maxSize);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Sets the distribution of the sides of the obstacles between the smallest and the largest: 0 draws them
+     * uniformly, a positive exponent <code>a</code> with a density proportional to <code>size^-a</code>, so that
+     * there are many small obstacles and a few large ones.
+     *
+     * @param sizeExponent the exponent of the power law (at least 0)
+     */
+    public void setSizeExponent(double sizeExponent)
+    {
+        if (!(sizeExponent >= 0))
+            throw new IllegalArgumentException("sizeExponent must not be negative: " + sizeExponent);
+        this.sizeExponent = sizeExponent;
+    }
+
+    /**
+     * Sets the free distance kept around the reserved polyline from the start to the end.
+     *
+     * @param clearance the distance, in pixels (at least 0)
+     */
+    public void setClearance(int clearance)
+    {
+        if (clearance < 0)
+            throw new IllegalArgumentException("clearance must not be negative: " + clearance);
+        this.clearance = clearance;
+    }
+
+    /**
+     * Sets the number of clusters of {@link Layout#CLUSTERS}.
+     *
+     * @param clusters the number of clusters, or 0 for one per thousand obstacles
+     */
+    public void setClusters(int clusters)
+    {
+        if (clusters < 0)
+            throw new IllegalArgumentException("clusters must not be negative: " + clusters);
+        this.clusters = clusters;
+    }
+
+    /**
+     * Sets the probability that a block of {@link Layout#SINE_WALLS} is left out.
+     *
+     * @param gapProbability the probability, between 0 and 1
+     */
+    public void setGapProbability(double gapProbability)
+    {
+        if (!(gapProbability >= 0 && gapProbability <= 1))
+            throw new IllegalArgumentException("gapProbability must be between 0 and 1: " + gapProbability);
+        this.gapProbability = gapProbability;
+    }
+
+    /**
+     * Generates the map into a list of rectangles.
+     *
+     * @return the map, with its start and end
+     */
+    public IUIConfiguration generate()
+    {
+        List<Rectangle> list = new ArrayList<>(obstacles);
+        generate((x, y, w, h) -> list.add(new Rectangle(x, y, w, h)));
+        UIConfiguration conf = new UIConfiguration(width, height, list);
+        conf.setStart(start);
+        conf.setEnd(end);
+        return conf;
+    }
+
+    /**
+     * Generates the obstacles of the map one by one. The start and the end are known once this returns.
+     *
+     * @param sink the destination of the obstacles
+     */
+    public void generate(Sink sink)
+    {
+        SplittableRandom rand = new SplittableRandom(seed);
+        count = 0;
+        dropped = 0;
+        switch (layout) {
+            case MAZE: maze(sink, rand); break;
+            case CORRIDORS: corridors(sink, rand); break;
+            default: scatter(sink, rand); break;
+        }
+    }
+
+    /**
+     * Obstacles of {@link Layout#RANDOM}, {@link Layout#CLUSTERS} and {@link Layout#SINE_WALLS}, kept away from a
+     * reserved polyline between the start and the end.
+     */
+    private void scatter(Sink sink, SplittableRandom rand)
+    {
+        // start and end in opposite corners, so the path crosses the whole map
+        int marginX = Math.max(1, width / 10), marginY = Math.max(1, height / 10);
+        start = new impl.Point(rand.nextInt(marginX), rand.nextInt(marginY));
+        end = new impl.Point(width - 1 - rand.nextInt(marginX), height - 1 - rand.nextInt(marginY));
+
+        // waypoints along the straight line from the start to the end, pushed sideways by up to a quarter of the map;
+        // they are whole pixels, so the polyline is itself a valid path
+        double[] xs = new double[WAYPOINTS + 2], ys = new double[WAYPOINTS + 2];
+        xs[0] = start.getX();
+        ys[0] = start.getY();
+        xs[WAYPOINTS + 1] = end.getX();
+        ys[WAYPOINTS + 1] = end.getY();
+        double dx = end.getX() - start.getX(), dy = end.getY() - start.getY(), length = Math.hypot(dx, dy);
+        for (int k = 1; k <= WAYPOINTS; k++) {
+            double t = (double) k / (WAYPOINTS + 1);
+            double offset = (rand.nextDouble() - 0.5) * Math.min(width, height) / 2;
+            xs[k] = Math.round(clamp(start.getX() + t * dx - offset * dy / length, 0, width - 1));
+            ys[k] = Math.round(clamp(start.getY() + t * dy + offset * dx / length, 0, height - 1));
+        }
+        Reserved reserved = new Reserved(xs, ys, clearance);
+
+        if (layout == Layout.SINE_WALLS) {
+            sineWalls(sink, rand, reserved);
+            return;
+        }
+
+        int centres = layout == Layout.CLUSTERS ? (clusters > 0 ? clusters : Math.max(1, obstacles / 1000)) : 0;
+        double[] cx = new double[centres], cy = new double[centres];
+        for (int c = 0; c < centres; c++) {
+            cx[c] = rand.nextDouble() * width;
+            cy[c] = rand.nextDouble() * height;
+        }
+        double spread = centres == 0 ? 0 : Math.sqrt((double) width * height / centres) / 4;
+
+        for (int i = 0; i < obstacles; i++) {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                int w = Math.min(width, size(rand)), h = Math.min(height, size(rand));
+                int x, y;
+                if (centres == 0) {
+                    x = rand.nextInt(width - w + 1);
+                    y = rand.nextInt(height - h + 1);
+                } else {
+                    int c = rand.nextInt(centres);
+                    x = (int) clamp(cx[c] + rand.nextGaussian() * spread - w / 2.0, 0, width - w);
+                    y = (int) clamp(cy[c] + rand.nextGaussian() * spread - h / 2.0, 0, height - h);
+                }
+                if (!reserved.touches(x, y, w, h)) {
+                    sink.add(x, y, w, h);
+                    count++;
+                    break;
+                }
+                dropped++;
+            }
+        }
+    }
+
+    /**
+     * Horizontal sine waves of blocks every {@value #SINE_STEP} pixels, as many waves as needed for the number of
+     * obstacles, each one spanning the whole width.
+     */
+    private void sineWalls(Sink sink, SplittableRandom rand, Reserved reserved)
+    {
+        long perWave = Math.max(1, (long) Math.ceil((width / (double) SINE_STEP) * (1 - gapProbability)));
+        int waves = (int) Math.max(1, Math.min(height / (2 * SINE_BLOCK), (obstacles + perWave - 1) / perWave));
+        double spacing = (double) height / (waves + 1);
+        double amplitude = Math.min(100, spacing / 3);
+        for (int k = 1; k <= waves && count < obstacles; k++) {
+            double base = k * spacing;
+            double phase = rand.nextDouble() * 360;
+            for (int i = 0; i < width && count < obstacles; i += SINE_STEP) {
+                if (rand.nextDouble() < gapProbability)
+                    continue;
+                int y = (int) (Math.sin(Math.toRadians(i + phase)) * amplitude + base);
+                if (reserved.touches(i, y, SINE_BLOCK, SINE_BLOCK)) {
+                    dropped++;
+                    continue;
+                }
+                sink.add(i, y, SINE_BLOCK, SINE_BLOCK);
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Perfect maze carved by a randomized depth-first search, with one wall for every pair of neighbouring cells
+     * that the search did not join. A grid of <code>n</code> cells has about <code>n</code> such walls.
+     */
+    private void maze(Sink sink, SplittableRandom rand)
+    {
+        int cellSize = (int) Math.max(4, Math.sqrt((double) width * height / Math.max(1, obstacles)));
+        int columns = Math.max(1, width / cellSize), rows = Math.max(1, height / cellSize);
+        int thickness = Math.max(1, cellSize / 4);
+        int cells = columns * rows;
+
+        // bit 1: open towards the next column, bit 2: open towards the next row
+        byte[] open = new byte[cells];
+        boolean[] visited = new boolean[cells];
+        int[] stack = new int[cells];
+        int[] neighbours = new int[4];
+        int top = 0;
+        stack[top++] = 0;
+        visited[0] = true;
+        while (top > 0) {
+            int cell = stack[top - 1], column = cell % columns, row = cell / columns, n = 0;
+            if (column > 0 && !visited[cell - 1])
+                neighbours[n++] = cell - 1;
+            if (column < columns - 1 && !visited[cell + 1])
+                neighbours[n++] = cell + 1;
+            if (row > 0 && !visited[cell - columns])
+                neighbours[n++] = cell - columns;
+            if (row < rows - 1 && !visited[cell + columns])
+                neighbours[n++] = cell + columns;
+            if (n == 0) {
+                top--;
+                continue;
+            }
+            int next = neighbours[rand.nextInt(n)];
+            if (next == cell + 1 || next == cell - 1)
+                open[Math.min(cell, next)] |= 1;
+            else
+                open[Math.min(cell, next)] |= 2;
+            visited[next] = true;
+            stack[top++] = next;
+        }
+
+        int half = thickness / 2;
+        for (int cell = 0; cell < cells; cell++) {
+            int column = cell % columns, row = cell / columns;
+            int x = column * cellSize, y = row * cellSize;
+            if (column < columns - 1 && (open[cell] & 1) == 0) {
+                sink.add(x + cellSize - half, y, thickness, cellSize);
+                count++;
+            }
+            if (row < rows - 1 && (open[cell] & 2) == 0) {
+                sink.add(x, y + cellSize - half, cellSize, thickness);
+                count++;
+            }
+        }
+        start = new impl.Point(cellSize / 2, cellSize / 2);
+        end = new impl.Point((columns - 1) * cellSize + cellSize / 2, (rows - 1) * cellSize + cellSize / 2);
+    }
+
+    /**
+     * Walls across the whole width, split into pieces to reach the number of obstacles, with a door at the right end
+     * of the even walls and at the left end of the odd ones, so there is a single corridor winding down the map.
+     */
+    private void corridors(Sink sink, SplittableRandom rand)
+    {
+        int thickness = Math.min(maxSize, Math.max(minSize, height / 100));
+        int door = Math.max(2 * clearance + 1, 2 * thickness);
+        int walls = (int) Math.max(1, Math.min(Math.sqrt(obstacles), height / (3L * thickness + 2)));
+        int pieces = Math.max(1, Math.min((obstacles + walls - 1) / walls, Math.max(1, width - door)));
+        double spacing = (double) height / (walls + 1);
+        for (int k = 0; k < walls && count < obstacles; k++) {
+            int y = (int) ((k + 1) * spacing) - thickness / 2;
+            int from = k % 2 == 0 ? 0 : door, to = k % 2 == 0 ? width - door : width;
+            for (int p = 0; p < pieces && count < obstacles; p++) {
+                int x0 = from + (int) ((long) (to - from) * p / pieces);
+                int x1 = from + (int) ((long) (to - from) * (p + 1) / pieces);
+                if (x1 > x0) {
+                    sink.add(x0, y, x1 - x0, thickness);
+                    count++;
+                }
+            }
+        }
+        int top = Math.max(1, (int) spacing - thickness / 2);
+        start = new impl.Point(rand.nextInt(width), rand.nextInt(top));
+        int bottom = (int) (walls * spacing) - thickness / 2 + thickness + 1;
+        end = new impl.Point(rand.nextInt(width),
+                             Math.min(height - 1, bottom + rand.nextInt(Math.max(1, height - bottom))));
+    }
+
+    /**
+     * Draws a side between the smallest and the largest, uniformly or from a truncated power law.
+     */
+    private int size(SplittableRandom rand)
+    {
+        if (minSize == maxSize)
+            return minSize;
+        if (sizeExponent == 0)
+            return minSize + rand.nextInt(maxSize - minSize + 1);
+        double u = rand.nextDouble(), size;
+        if (sizeExponent == 1) {
+            size = minSize * Math.pow((double) maxSize / minSize, u);
+        } else {
+            double e = 1 - sizeExponent, low = Math.pow(minSize, e), high = Math.pow(maxSize + 1, e);
+            size = Math.pow(low + u * (high - low), 1 / e);
+        }
+        return (int) Math.max(minSize, Math.min(maxSize, size));
+    }
+
+    private static double clamp(double value, double min, double max)
+    {
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    /**
+     * Returns the start of the last generated map.
+     */
+    public IPoint getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the end of the last generated map.
+     */
+    public IPoint getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the number of obstacles of the last generated map, which may be lower than asked for when the map has
+     * no room for more walls or too many draws came too close to the reserved polyline.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of obstacles of the last generated map that were dropped because they came too close to
+     * the reserved polyline.
+     */
+    public int getDropped() {
+        return dropped;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Generates a map and prints how long it took. The arguments are <code>name=value</code> pairs, as for
+     * {@link Sweep}:
+     * <pre>
+     * layout=maze width=20000 height=20000 obstacles=1000000 seed=1 min=10 max=100 exponent=0 clusters=0
+     * </pre>
+     * With <code>out=file</code> the map is also written to a {@link MapFile}, with its index.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        Layout layout = Layout.RANDOM;
+        int width = 10000, height = 10000, obstacles = 100000, minSize = 10, maxSize = 100, clusters = 0;
+        long seed = 1;
+        double exponent = 0;
+        String out = null;
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0)
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            String name = arg.substring(0, equals), value = arg.substring(equals + 1);
+            switch (name) {
+                case "layout": layout = Layout.valueOf(value.toUpperCase()); break;
+                case "width": width = Integer.parseInt(value); break;
+                case "height": height = Integer.parseInt(value); break;
+                case "obstacles": obstacles = Integer.parseInt(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                case "min": minSize = Integer.parseInt(value); break;
+                case "max": maxSize = Integer.parseInt(value); break;
+                case "exponent": exponent = Double.parseDouble(value); break;
+                case "clusters": clusters = Integer.parseInt(value); break;
+                case "out": out = value; break;
+                default: throw new IllegalArgumentException("unknown argument: " + name);
+            }
+        }
+
+        MapGenerator generator = new MapGenerator(layout, width, height, obstacles, seed);
+        generator.setSizes(minSize, maxSize);
+        generator.setSizeExponent(exponent);
+        generator.setClusters(clusters);
+        long begin = System.nanoTime();
+        IUIConfiguration conf = generator.generate();
+        System.out.printf("%s %dx%d: %d obstáculos (%d rejeitados) em %.0f ms, de (%d, %d) a (%d, %d)%n", layout,
+                width, height, conf.getObstacles().size(), generator.getDropped(), (System.nanoTime() - begin) / 1e6,
+                conf.getStart().getX(), conf.getStart().getY(), conf.getEnd().getX(), conf.getEnd().getY());
+        if (out != null) {
+            MapFile.write(Paths.get(out), conf, true);
+            System.out.println("Escrito em " + out);
+        }
+    }
+
+    /**
+     * Polyline that the obstacles must stay clear of, with the bounding box of each segment to reject most obstacles
+     * at once.
+     */
+    private static class Reserved
+    {
+        private final double[] xs, ys;
+        private final int clearance;
+        private final double minX, minY, maxX, maxY;
+
+        private Reserved(double[] xs, double[] ys, int clearance)
+        {
+            this.xs = xs;
+            this.ys = ys;
+            this.clearance = clearance;
+            double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+            for (int k = 0; k < xs.length; k++) {
+                x0 = Math.min(x0, xs[k]);
+                y0 = Math.min(y0, ys[k]);
+                x1 = Math.max(x1, xs[k]);
+                y1 = Math.max(y1, ys[k]);
+            }
+            this.minX = x0 - clearance;
+            this.minY = y0 - clearance;
+            this.maxX = x1 + clearance;
+            this.maxY = y1 + clearance;
+        }
+
+        /**
+         * Tells if a rectangle, grown by the clearance, touches the polyline.
+         */
+        private boolean touches(int x, int y, int width, int height)
+        {
+            int gx = x - clearance, gy = y - clearance, gw = width + 2 * clearance, gh = height + 2 * clearance;
+            if (gx > maxX || gy > maxY || gx + gw < minX || gy + gh < minY)
+                return false;
+            for (int k = 0; k + 1 < xs.length; k++)
+                if (RectangleBatch.intersectsLine(gx, gy, gw, gh, xs[k], ys[k], xs[k + 1], ys[k + 1]))
+                    return true;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package maps;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import interf.IUIConfiguration;
+
+/**
+ * Uniform-grid spatial index over the obstacles of a map. Every obstacle is registered in the cells covered by its
+ * closed bounds, so that point and segment queries only test the obstacles stored in the cells they touch instead of
+ * scanning the whole list.
+ * <p>
+ * Queries give exactly the same answers as {@link Rectangle#contains(int, int)} and
+ * {@link Rectangle#intersectsLine(double, double, double, double)} applied to every obstacle. The index is immutable
+ * and can be shared between threads; it does not see changes made to the obstacle list after it was built.
+ */
+public class ObstacleGrid implements CollisionChecker
+{
+    private static final int MIN_CELL_SIZE = 4;
+    private static final int MAX_CELL_SIZE = 256;
+    private static final double EPSILON = 1e-9;
+    /**
+     * With this many obstacles or fewer, scanning them directly is faster than walking the grid.
+     */
+    private static final int LINEAR_SCAN_LIMIT = 16;
+
+    /**
+     * Number of maps whose index {@link #of(IUIConfiguration)} keeps, so code that alternates between a few maps does
+     * not rebuild their indices every time.
+     */
+    private static final int CACHE_SIZE = 4;
+
+    /**
+     * The indices returned by {@link #of(IUIConfiguration)}, most recently used first.
+     */
+    private static final ObstacleGrid[] cache = new ObstacleGrid[CACHE_SIZE];
+
+    private final List<Rectangle> source;
+    private final int sourceSize, width, height;
+    /**
+     * Coordinates of the obstacles of the source list when the index was cached, to notice changes made to the list
+     * in place; null when the list cannot change.
+     */
+    private int[] snapshot;
+
+    /**
+     * The non-empty obstacles, in the order of the source list.
+     */
+    private final RectangleBatch batch;
+    private final int cellSize, columns, rows;
+    private final int[] cellStart;
+    private final int[] cellItems;
+
+    /**
+     * Returns the index of the obstacles of a configuration, reusing one of the last {@value #CACHE_SIZE} built when
+     * the configuration still has the same obstacle list, with the same obstacles in it. Changes made to the list in
+     * place, such as removing an obstacle and adding another or replacing one with <code>set</code>, are noticed by
+     * comparing the obstacles with a copy of their coordinates, which costs a pass over the list on every call, done
+     * outside the lock of the cache. Code that queries a map in a loop must hold the index instead of asking for it
+     * each time, and ask again after changing the obstacles.
+     *
+     * @param conf the map
+     * @return the index of the obstacles of the map
+     */
+    public static ObstacleGrid of(IUIConfiguration conf)
+    {
+        ObstacleGrid[] entries;
+        synchronized (cache) {
+            entries = cache.clone();
+        }
+        for (ObstacleGrid grid : entries) {
+            if (grid != null && grid.isIndexOf(conf)) {
+                grid.remember();
+                return grid;
+            }
+        }
+
+        ObstacleGrid grid = new ObstacleGrid(conf.getObstacles(), conf.getWidth(), conf.getHeight());
+        grid.snapshot = new int[4 * grid.sourceSize];
+        int k = 0;
+        for (Rectangle r : grid.source) {
+            grid.snapshot[k++] = r.x;
+            grid.snapshot[k++] = r.y;
+            grid.snapshot[k++] = r.width;
+            grid.snapshot[k++] = r.height;
+        }
+        grid.remember();
+        return grid;
+    }
+
+    /**
+     * Puts this index first in the cache, dropping the indices of older versions of the same list.
+     */
+    private void remember()
+    {
+        synchronized (cache) {
+            int kept = 0;
+            ObstacleGrid[] entries = cache.clone();
+            cache[kept++] = this;
+            for (ObstacleGrid grid : entries)
+                if (grid != null && grid != this && grid.source != source && kept < cache.length)
+                    cache[kept++] = grid;
+            while (kept < cache.length)
+                cache[kept++] = null;
+        }
+    }
+
+    /**
+     * Builds an index with a cell size derived from the size of the obstacles.
+     *
+     * @param obstacles the obstacles to index
+     * @param width the width of the map
+     * @param height the height of the map
+     */
+    public ObstacleGrid(List<Rectangle> obstacles, int width, int height)
+    {
+        this(obstacles, width, height, new RectangleBatch(obstacles));
+    }
+
+    /**
+     * Builds an index of obstacles that are already packed, with a cell size derived from their size.
+     *
+     * @param source the list the obstacles were read from, used to recognize the map in
+     *        {@link #of(IUIConfiguration)}
+     * @param batch the non-empty obstacles of <code>source</code>, in the same order
+     */
+    ObstacleGrid(List<Rectangle> source, int width, int height, RectangleBatch batch)
+    {
+        this(source, width, height, batch, chooseCellSize(batch, width, height), null, null);
+    }
+
+    /**
+     * Builds an index with the given cell size.
+     *
+     * @param obstacles the obstacles to index
+     * @param width the width of the map
+     * @param height the height of the map
+     * @param cellSize the side of each cell of the grid, in pixels
+     */
+    public ObstacleGrid(List<Rectangle> obstacles, int width, int height, int cellSize)
+    {
+        this(obstacles, width, height, new RectangleBatch(obstacles), cellSize, null, null);
+    }
+
+    /**
+     * Rebuilds an index from the cells of one built before, such as those saved in a {@link MapFile}, without the
+     * passes over the obstacles that fill them.
+     *
+     * @param batch the non-empty obstacles of <code>obstacles</code>, in the same order
+     * @param savedStart the start of the obstacles of each cell in <code>savedItems</code>, as returned by
+     *        {@link #getCellStart()}, or null to build the cells
+     * @param savedItems the positions of the obstacles of each cell among the non-empty obstacles, as returned by
+     *        {@link #getCellItems()}
+     * @throws IllegalArgumentException if the saved cells are not those of a grid of this size over these obstacles
+     */
+    ObstacleGrid(List<Rectangle> obstacles, int width, int height, RectangleBatch batch, int cellSize,
+                 int[] savedStart, int[] savedItems)
+    {
+        if (cellSize < 1)
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+
+        this.source = obstacles;
+        this.sourceSize = obstacles.size();
+        this.width = width;
+        this.height = height;
+        this.cellSize = cellSize;
+        this.columns = Math.max(1, (width + cellSize - 1) / cellSize);
+        this.rows = Math.max(1, (height + cellSize - 1) / cellSize);
+
+        this.batch = batch;
+
+        if (savedStart != null) {
+            if (savedStart.length != columns * rows + 1 || savedStart[0] != 0
+                    || savedStart[savedStart.length - 1] != savedItems.length)
+                throw new IllegalArgumentException("the cells do not match a grid of " + columns + "x" + rows);
+            for (int cell = 0; cell < savedStart.length - 1; cell++)
+                if (savedStart[cell] > savedStart[cell + 1])
+                    throw new IllegalArgumentException("cell " + cell + " ends before it starts");
+            for (int item : savedItems)
+                if (item < 0 || item >= batch.size())
+                    throw new IllegalArgumentException("no obstacle " + item + " among " + batch.size());
+            this.cellStart = savedStart;
+            this.cellItems = savedItems;
+            return;
+        }
+
+        // counting pass, then a prefix sum and a fill pass into a compressed (CSR) layout
+        int[] xs = batch.xs, ys = batch.ys, widths = batch.widths, heights = batch.heights;
+        int[] counts = new int[columns * rows + 1];
+        for (int i = 0; i < xs.length; i++)
+            for (int row = rowOf(ys[i]); row <= rowOf(ys[i] + heights[i]); row++)
+                for (int column = columnOf(xs[i]); column <= columnOf(xs[i] + widths[i]); column++)
+                    counts[row * columns + column + 1]++;
+
+        for (int i = 1; i < counts.length; i++)
+            counts[i] += counts[i - 1];
+        this.cellStart = counts.clone();
+        this.cellItems = new int[counts[counts.length - 1]];
+
+        for (int i = 0; i < xs.length; i++)
+            for (int row = rowOf(ys[i]); row <= rowOf(ys[i] + heights[i]); row++)
+                for (int column = columnOf(xs[i]); column <= columnOf(xs[i] + widths[i]); column++)
+                    cellItems[counts[row * columns + column]++] = i;
+    }
+
+    private static int chooseCellSize(RectangleBatch batch, int width, int height)
+    {
+        if (batch.size() == 0)
+            return MAX_CELL_SIZE;
+
+        double extent = 0;
+        for (int i = 0; i < batch.size(); i++)
+            extent += Math.max(batch.widths[i], batch.heights[i]);
+        int cellSize = (int) Math.round(2 * extent / batch.size());
+        cellSize = Math.max(MIN_CELL_SIZE, Math.min(MAX_CELL_SIZE, cellSize));
+
+        // keep the number of cells proportional to the number of obstacles on very large, sparse maps
+        long maxCells = Math.max(4096L, 4L * batch.size());
+        while (cellSize < MAX_CELL_SIZE && ((long) width / cellSize + 1) * ((long) height / cellSize + 1) > maxCells)
+            cellSize *= 2;
+        return cellSize;
+    }
+
+    /**
+     * Tells if this index is still the index of a configuration. Indices that were not returned by
+     * {@link #of(IUIConfiguration)} only check that the list, its size and the size of the map are the same.
+     */
+    boolean isIndexOf(IUIConfiguration conf)
+    {
+        if (source != conf.getObstacles() || sourceSize != source.size()
+                || width != conf.getWidth() || height != conf.getHeight())
+            return false;
+        if (snapshot == null)
+            return true;
+        int k = 0;
+        for (Rectangle r : source) {
+            if (snapshot[k] != r.x || snapshot[k + 1] != r.y || snapshot[k + 2] != r.width
+                    || snapshot[k + 3] != r.height)
+                return false;
+            k += 4;
+        }
+        return true;
+    }
+
+    private int columnOf(double x)
+    {
+        int column = (int) Math.floor(x / cellSize);
+        return column < 0 ? 0 : (column >= columns ? columns - 1 : column);
+    }
+
+    private int rowOf(double y)
+    {
+        int row = (int) Math.floor(y / cellSize);
+        return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+    }
+
+    /**
+     * Tells if a point is inside any obstacle.
+     *
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @return true if some obstacle contains the point
+     */
+    @Override
+    public boolean contains(int x, int y)
+    {
+        if (batch.size() <= LINEAR_SCAN_LIMIT)
+            return batch.contains(x, y);
+
+        int cell = rowOf(y) * columns + columnOf(x);
+        for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++)
+            if (batch.contains(cellItems[i], x, y))
+                return true;
+        return false;
+    }
+
+    /**
+     * Counts the obstacles intersected by a segment.
+     *
+     * @return the number of obstacles that the segment touches
+     */
+    @Override
+    public int countIntersections(int x1, int y1, int x2, int y2)
+    {
+        return walk(x1, y1, x2, y2, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Tells if a segment touches any obstacle.
+     *
+     * @return true if the segment touches at least one obstacle
+     */
+    @Override
+    public boolean intersects(int x1, int y1, int x2, int y2)
+    {
+        return walk(x1, y1, x2, y2, 1, null) > 0;
+    }
+
+    /**
+     * Returns the obstacles that a segment touches.
+     *
+     * @return copies of the obstacles intersected by the segment, each one once
+     */
+    public List<Rectangle> intersecting(int x1, int y1, int x2, int y2)
+    {
+        List<Rectangle> result = new ArrayList<>();
+        walk(x1, y1, x2, y2, Integer.MAX_VALUE, result);
+        return result;
+    }
+
+    /**
+     * Walks the cells crossed by a segment, column by column, and tests the obstacles registered in them. An obstacle
+     * can be registered in several of those cells; it is only tested in the first visited cell that it shares with the
+     * segment, which avoids having to remember which obstacles were already seen.
+     */
+    private int walk(int ax, int ay, int bx, int by, int limit, List<Rectangle> found)
+    {
+        // the walk goes left to right, but the exact test keeps the original direction: intersectsLine is not
+        // symmetric when the segment grazes a corner
+        if (batch.size() <= LINEAR_SCAN_LIMIT)
+            return scan(ax, ay, bx, by, limit, found);
+
+        int x1 = ax, y1 = ay, x2 = bx, y2 = by;
+        if (x2 < x1) {
+            int t = x1; x1 = x2; x2 = t;
+            t = y1; y1 = y2; y2 = t;
+        }
+
+        double slope = x1 == x2 ? 0 : (double) (y2 - y1) / (x2 - x1);
+        int minRow = rowOf(Math.min(y1, y2)), maxRow = rowOf(Math.max(y1, y2));
+        int firstColumn = columnOf(x1), lastColumn = columnOf(x2);
+        int previousLow = -1, previousHigh = -1;
+        int count = 0;
+        int[] xs = batch.xs, ys = batch.ys, widths = batch.widths, heights = batch.heights;
+
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            int low, high;
+            if (x1 == x2) {
+                low = minRow;
+                high = maxRow;
+            } else {
+                double xa = column == firstColumn ? x1 : (double) column * cellSize;
+                double xb = column == lastColumn ? x2 : (double) (column + 1) * cellSize;
+                double ya = y1 + (xa - x1) * slope, yb = y1 + (xb - x1) * slope;
+                low = Math.max(minRow, rowOf(Math.min(ya, yb) - EPSILON));
+                high = Math.min(maxRow, rowOf(Math.max(ya, yb) + EPSILON));
+            }
+
+            for (int row = low; row <= high; row++) {
+                int cell = row * columns + column;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int k = cellItems[i];
+                    int r0 = rowOf(ys[k]), r1 = rowOf(ys[k] + heights[k]);
+                    // first row of this column shared with the obstacle
+                    if (row != Math.max(low, r0))
+                        continue;
+                    // the obstacle was already met in the previous column
+                    if (column != firstColumn && column != columnOf(xs[k]) && previousLow <= r1 && previousHigh >= r0)
+                        continue;
+                    if (RectangleBatch.intersectsLine(xs[k], ys[k], widths[k], heights[k], ax, ay, bx, by)) {
+                        if (found != null)
+                            found.add(new Rectangle(xs[k], ys[k], widths[k], heights[k]));
+                        if (++count >= limit)
+                            return count;
+                    }
+                }
+            }
+            previousLow = low;
+            previousHigh = high;
+        }
+        return count;
+    }
+
+    private int scan(int x1, int y1, int x2, int y2, int limit, List<Rectangle> found)
+    {
+        if (found == null)
+            return batch.count(0, batch.size(), x1, y1, x2, y2, limit);
+
+        int count = 0;
+        for (int k = 0; k < batch.size(); k++) {
+            if (batch.intersects(k, x1, y1, x2, y2)) {
+                found.add(new Rectangle(batch.xs[k], batch.ys[k], batch.widths[k], batch.heights[k]));
+                if (++count >= limit)
+                    return count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Makes {@link #of(IUIConfiguration)} return this index for the configurations it was built for. The obstacle
+     * list must be one that cannot change, since it is only compared by identity.
+     */
+    void cache()
+    {
+        remember();
+    }
+
+    /**
+     * Returns the start of the obstacles of each cell in {@link #getCellItems()}, row by row, with the total at the
+     * end. The array is shared and must not be changed.
+     */
+    int[] getCellStart() {
+        return cellStart;
+    }
+
+    /**
+     * Returns the positions of the obstacles of each cell among the non-empty obstacles. The array is shared and
+     * must not be changed.
+     */
+    int[] getCellItems() {
+        return cellItems;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int size() {
+        return batch.size();
+    }
+}
@@ -0,0 +1,348 @@
+package maps;
+
+import java.awt.*;
+import java.util.List;
+
+import interf.IUIConfiguration;
+
+/**
+ * Rasterized occupancy of a map: a bitset with one bit per cell of <code>resolution x resolution</code> pixels.
+ * <p>
+ * Three bitsets are kept. <code>touched</code> marks the cells that share a pixel with some obstacle and
+ * <code>covered</code> the cells that lie entirely inside one obstacle, so a point test is a single bit lookup (at a
+ * resolution of 1 they are the same and every answer is exact). <code>closed</code> lives on a coarser segment grid and
+ * marks the cells that meet the closed bounds of some obstacle. It is used by a conservative walk along the cells
+ * crossed by a segment: a segment that only crosses clear cells cannot touch any obstacle.
+ * <p>
+ * When the bitmap cannot decide, {@link Mode#EXACT} falls back to an {@link ObstacleGrid}, so its answers match
+ * {@link Rectangle#contains(int, int)} and {@link Rectangle#intersectsLine(double, double, double, double)}.
+ * {@link Mode#CONSERVATIVE} never looks at the obstacles again: an undecided point counts as blocked and a segment
+ * that crosses a marked cell counts as one intersection.
+ */
+public class OccupancyGrid implements CollisionChecker
+{
+    public enum Mode { EXACT, CONSERVATIVE }
+
+    /**
+     * Upper bound on the number of cells chosen automatically (2 MB per bitset).
+     */
+    private static final long MAX_CELLS = 1L << 24;
+    /**
+     * Side of a cell of the segment grid, in cells of the point grid, when it is not given explicitly.
+     */
+    private static final int SEGMENT_CELLS = 8;
+    private static final double EPSILON = 1e-9;
+
+    /**
+     * Number of maps whose occupancy {@link #of(IUIConfiguration)} keeps.
+     */
+    private static final int CACHE_SIZE = 4;
+
+    /**
+     * The occupancies returned by {@link #of(IUIConfiguration)}, most recently used first.
+     */
+    private static final OccupancyGrid[] cache = new OccupancyGrid[CACHE_SIZE];
+
+    private final ObstacleGrid exact;
+    private final Mode mode;
+    private final List<Rectangle> source;
+    private final int sourceSize, width, height;
+    private final int resolution, columns, rows;
+    private final int segmentCellSize, segmentColumns, segmentRows;
+    private final long[] touched, covered, closed;
+
+    /**
+     * Returns the occupancy of a configuration in {@link Mode#EXACT}, reusing one of the last {@value #CACHE_SIZE}
+     * built when the configuration still has the same obstacles, checked as in
+     * {@link ObstacleGrid#of(IUIConfiguration)}. That check costs a pass over the obstacles, outside the lock of the
+     * cache, so a run must take the occupancy once and hand it to the code that tests points.
+     *
+     * @param conf the map
+     * @return the occupancy of the map
+     */
+    public static OccupancyGrid of(IUIConfiguration conf)
+    {
+        OccupancyGrid[] entries;
+        synchronized (cache) {
+            entries = cache.clone();
+        }
+        for (OccupancyGrid grid : entries)
+            if (grid != null && grid.isOccupancyOf(conf))
+                return grid.remember();
+
+        return new OccupancyGrid(conf, Mode.EXACT).remember();
+    }
+
+    /**
+     * Puts this occupancy first in the cache, dropping the occupancies of older versions of the same list.
+     */
+    private OccupancyGrid remember()
+    {
+        synchronized (cache) {
+            int kept = 0;
+            OccupancyGrid[] entries = cache.clone();
+            cache[kept++] = this;
+            for (OccupancyGrid old : entries)
+                if (old != null && old != this && old.source != source && kept < cache.length)
+                    cache[kept++] = old;
+            while (kept < cache.length)
+                cache[kept++] = null;
+        }
+        return this;
+    }
+
+    /**
+     * Rasterizes the obstacles of a map with the finest resolution that keeps the bitmap under 16M cells.
+     *
+     * @param conf the map
+     * @param mode what to do when the bitmap cannot decide
+     */
+    public OccupancyGrid(IUIConfiguration conf, Mode mode)
+    {
+        this(conf, mode, chooseResolution(conf.getWidth(), conf.getHeight()));
+    }
+
+    /**
+     * Rasterizes the obstacles of a map, with segment cells of {@value #SEGMENT_CELLS} point cells per side.
+     *
+     * @param conf the map
+     * @param mode what to do when the bitmap cannot decide
+     * @param resolution the side of each cell, in pixels
+     */
+    public OccupancyGrid(IUIConfiguration conf, Mode mode, int resolution)
+    {
+        this(conf, mode, resolution, resolution * SEGMENT_CELLS);
+    }
+
+    /**
+     * Rasterizes the obstacles of a map.
+     *
+     * @param conf the map
+     * @param mode what to do when the bitmap cannot decide
+     * @param resolution the side of each cell used by point tests, in pixels
+     * @param segmentCellSize the side of each cell walked by segment tests, in pixels
+     */
+    public OccupancyGrid(IUIConfiguration conf, Mode mode, int resolution, int segmentCellSize)
+    {
+        this(conf, ObstacleGrid.of(conf), mode, resolution, segmentCellSize);
+    }
+
+    /**
+     * Rasterizes the obstacles of a map that already has an index, with the finest resolution that keeps the bitmap
+     * under 16M cells. The index answers the queries that the bitmap cannot decide.
+     *
+     * @param conf the map
+     * @param exact the index of the obstacles of the map
+     * @param mode what to do when the bitmap cannot decide
+     * @throws IllegalArgumentException if the index was built from other obstacles or for another size
+     */
+    public OccupancyGrid(IUIConfiguration conf, ObstacleGrid exact, Mode mode)
+    {
+        this(conf, exact, mode, chooseResolution(conf.getWidth(), conf.getHeight()));
+    }
+
+    private OccupancyGrid(IUIConfiguration conf, ObstacleGrid exact, Mode mode, int resolution)
+    {
+        this(conf, exact, mode, resolution, resolution * SEGMENT_CELLS);
+    }
+
+    private OccupancyGrid(IUIConfiguration conf, ObstacleGrid exact, Mode mode, int resolution, int segmentCellSize)
+    {
+        if (!exact.isIndexOf(conf))
+            throw new IllegalArgumentException("the index was not built from the obstacles of the map");
+        if (resolution < 1)
+            throw new IllegalArgumentException("resolution must be positive: " + resolution);
+        if (segmentCellSize < 1)
+            throw new IllegalArgumentException("segmentCellSize must be positive: " + segmentCellSize);
+
+        this.exact = exact;
+        this.mode = mode;
+        this.source = conf.getObstacles();
+        this.sourceSize = source.size();
+        this.width = conf.getWidth();
+        this.height = conf.getHeight();
+        this.resolution = resolution;
+        this.columns = Math.max(1, (width + resolution - 1) / resolution);
+        this.rows = Math.max(1, (height + resolution - 1) / resolution);
+        this.segmentCellSize = segmentCellSize;
+        this.segmentColumns = Math.max(1, (width + segmentCellSize - 1) / segmentCellSize);
+        this.segmentRows = Math.max(1, (height + segmentCellSize - 1) / segmentCellSize);
+
+        int words = (int) (((long) columns * rows + 63) >>> 6);
+        this.touched = new long[words];
+        this.covered = new long[words];
+        this.closed = new long[(int) (((long) segmentColumns * segmentRows + 63) >>> 6)];
+
+        for (Rectangle r : source) {
+            if (r.isEmpty())
+                continue;
+            // closed bounds x .. x + width, on the coarser segment grid
+            fill(closed, segmentColumns, columnOf(r.x), columnOf(r.x + r.width), rowOf(r.y), rowOf(r.y + r.height), false);
+            // an obstacle with no pixel on the map must not mark the border cells it would be clamped to
+            if ((long) r.x + r.width <= 0 || r.x >= width || (long) r.y + r.height <= 0 || r.y >= height)
+                continue;
+            // pixels x .. x + width - 1
+            fill(touched, columns, clampColumn(r.x / resolution), clampColumn(Math.floorDiv(r.x + r.width - 1, resolution)),
+                    clampRow(r.y / resolution), clampRow(Math.floorDiv(r.y + r.height - 1, resolution)), false);
+            // whole cells inside the pixels of the obstacle
+            fill(covered, columns, Math.floorDiv(r.x + resolution - 1, resolution), Math.floorDiv(r.x + r.width, resolution) - 1,
+                    Math.floorDiv(r.y + resolution - 1, resolution), Math.floorDiv(r.y + r.height, resolution) - 1, true);
+        }
+    }
+
+    private static int chooseResolution(int width, int height)
+    {
+        int resolution = 1;
+        while ((long) (width / resolution + 1) * (height / resolution + 1) > MAX_CELLS)
+            resolution++;
+        return resolution;
+    }
+
+    private boolean isOccupancyOf(IUIConfiguration conf)
+    {
+        // the exact index was built for the same obstacles, and when taken from ObstacleGrid.of it notices changes made
+        // in place
+        return source == conf.getObstacles() && sourceSize == source.size()
+                && width == conf.getWidth() && height == conf.getHeight() && exact.isIndexOf(conf);
+    }
+
+    /**
+     * Sets the bits of a block of cells of a bitset with <code>stride</code> cells per row. Blocks partly outside the
+     * map are clamped to it by the caller, unless <code>strict</code> is set, in which case only the cells really
+     * inside the point grid are set.
+     */
+    private void fill(long[] bits, int stride, int c0, int c1, int r0, int r1, boolean strict)
+    {
+        if (strict) {
+            c0 = Math.max(c0, 0);
+            r0 = Math.max(r0, 0);
+            c1 = Math.min(c1, columns - 1);
+            r1 = Math.min(r1, rows - 1);
+        }
+        for (int row = r0; row <= r1; row++) {
+            for (int column = c0; column <= c1; column++) {
+                int cell = row * stride + column;
+                bits[cell >>> 6] |= 1L << cell;
+            }
+        }
+    }
+
+    private static boolean get(long[] bits, int cell)
+    {
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    private int clampColumn(int column)
+    {
+        return column < 0 ? 0 : (column >= columns ? columns - 1 : column);
+    }
+
+    private int clampRow(int row)
+    {
+        return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+    }
+
+    /**
+     * Column of the segment grid that holds x.
+     */
+    private int columnOf(double x)
+    {
+        int column = (int) Math.floor(x / segmentCellSize);
+        return column < 0 ? 0 : (column >= segmentColumns ? segmentColumns - 1 : column);
+    }
+
+    /**
+     * Row of the segment grid that holds y.
+     */
+    private int rowOf(double y)
+    {
+        int row = (int) Math.floor(y / segmentCellSize);
+        return row < 0 ? 0 : (row >= segmentRows ? segmentRows - 1 : row);
+    }
+
+    @Override
+    public boolean contains(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return exact.contains(x, y);
+
+        int cell = (y / resolution) * columns + x / resolution;
+        if (!get(touched, cell))
+            return false;
+        if (resolution == 1 || get(covered, cell))
+            return true;
+        return mode == Mode.CONSERVATIVE || exact.contains(x, y);
+    }
+
+    @Override
+    public int countIntersections(int x1, int y1, int x2, int y2)
+    {
+        if (!mayIntersect(x1, y1, x2, y2))
+            return 0;
+        return mode == Mode.CONSERVATIVE ? 1 : exact.countIntersections(x1, y1, x2, y2);
+    }
+
+    @Override
+    public boolean intersects(int x1, int y1, int x2, int y2)
+    {
+        return mayIntersect(x1, y1, x2, y2) && (mode == Mode.CONSERVATIVE || exact.intersects(x1, y1, x2, y2));
+    }
+
+    /**
+     * Conservative DDA walk over the cells crossed by a segment. The walk advances one cell at a time along the major
+     * axis of the segment and, for each step, checks every cell of the minor axis that the segment crosses there.
+     *
+     * @return false only if the segment cannot touch any obstacle
+     */
+    public boolean mayIntersect(int x1, int y1, int x2, int y2)
+    {
+        if (Math.abs(x2 - x1) >= Math.abs(y2 - y1))
+            return walk(x1, y1, x2, y2, false);
+        return walk(y1, x1, y2, x2, true);
+    }
+
+    /**
+     * Walks along u (the major axis), checking the range of v covered by the segment in each cell of u. When
+     * <code>transposed</code> is set u is the y axis.
+     */
+    private boolean walk(int u1, int v1, int u2, int v2, boolean transposed)
+    {
+        if (u2 < u1) {
+            int t = u1; u1 = u2; u2 = t;
+            t = v1; v1 = v2; v2 = t;
+        }
+
+        double slope = u1 == u2 ? 0 : (double) (v2 - v1) / (u2 - u1);
+        int first = transposed ? rowOf(u1) : columnOf(u1), last = transposed ? rowOf(u2) : columnOf(u2);
+        int minV = transposed ? columnOf(Math.min(v1, v2)) : rowOf(Math.min(v1, v2));
+        int maxV = transposed ? columnOf(Math.max(v1, v2)) : rowOf(Math.max(v1, v2));
+
+        for (int u = first; u <= last; u++) {
+            double ua = u == first ? u1 : (double) u * segmentCellSize;
+            double ub = u == last ? u2 : (double) (u + 1) * segmentCellSize;
+            double va = v1 + (ua - u1) * slope, vb = v1 + (ub - u1) * slope;
+            double vLow = Math.min(va, vb) - EPSILON, vHigh = Math.max(va, vb) + EPSILON;
+            int low = Math.max(minV, transposed ? columnOf(vLow) : rowOf(vLow));
+            int high = Math.min(maxV, transposed ? columnOf(vHigh) : rowOf(vHigh));
+
+            for (int v = low; v <= high; v++) {
+                int cell = transposed ? u * segmentColumns + v : v * segmentColumns + u;
+                if (get(closed, cell))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    public int getSegmentCellSize() {
+        return segmentCellSize;
+    }
+}
@@ -1,101 +1,325 @@
 package maps;
 
 import java.awt.*;
-import java.awt.geom.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
 import java.util.stream.Collectors;
 
+import interf.IPath;
 import interf.IPoint;
 import interf.IUIConfiguration;
 import viewer.PathViewer;
 
 public class PathDrawingSample {
+    public static final double INTERSECTION_PENALTY = 10000;
+    /**
+     * Maximum number of points of a path: the start, up to 5 random points and the end.
+     */
+    public static final int MAX_POINTS = 7;
+
     public static IUIConfiguration conf;
     public static int bestIntersections = Integer.MAX_VALUE;
 
     public static void main(String args[]) throws InterruptedException, Exception {
         int map_id = 9;
-        conf = Maps.getMap(map_id);
+        // a map written by MapFile or MapGenerator, used instead of map_id when set
+        Path mapFile = null;
+        conf = mapFile != null ? MapFile.open(mapFile) : Maps.getMap(map_id);
+        // the map does not change during the run, so its index and its occupancy are looked up once
+        ObstacleGrid index = ObstacleGrid.of(conf);
+        OccupancyGrid occupancy = OccupancyGrid.of(conf);
 
         int populationSize = 100;
         int generations = 2000;
         double mutationRate = 0.05;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        // every random choice of a run derives from this seed, so the same seed gives the same path whatever the
+        // parallelism, unless the time limit stops the run at a different generation
+        long runSeed = 42;
+        boolean primitivePopulation = true;
+        // seed the initial population with the shortest path of the visibility graph and variants of it
+        boolean visibilitySeeding = true;
+        double seededFraction = 0.2;
+        int seedRadius = 20;
+        // island model: one population of populationSize individuals per core, exchanging their best individuals
+        boolean islandModel = false;
+        int migrationInterval = 20;
+        int migrants = 5;
+        // with more than 0, the islands run in this many worker processes instead of threads of this JVM
+        int islandProcesses = 0;
+        // maps much larger than these: find a corridor on a coarse grid first, then run the genetic algorithm on
+        // each leg of it, with legGenerations generations at most
+        boolean hierarchical = false;
+        int legGenerations = 200;
+        // stopping criteria; after a path without intersections is found the search goes on shortening it
+        Termination termination = new Termination(generations);
+        termination.setStagnationLimit(300);
+        termination.setTimeLimitNanos(TimeUnit.SECONDS.toNanos(30));
+        // after this many generations without improvement, part of the population is replaced by random paths
+        int restartInterval = 100;
+        double restartFraction = 0.5;
+        // steady state: each step breeds a few children that replace the worst individuals, with an elite archive;
+        // a generation is populationSize / steadyStateChildren steps, so it costs as many evaluations as before
+        boolean steadyState = false;
+        int steadyStateChildren = 2;
+        int eliteArchiveSize = 10;
+        // number of segments whose obstacle count is remembered across generations (0 disables the cache)
+        int segmentCacheSize = 1 << 16;
+        // memetic stage: every localSearchInterval generations the localSearchTop best paths are shortened in
+        // parallel, and the final best path once more (an interval of 0 disables the stage)
+        int localSearchInterval = 10;
+        int localSearchTop = 5;
+        // the state of the run is saved every checkpointInterval generations (0 disables it); with resume, a run
+        // continues from the checkpoint left by a run that was killed, exactly as that run would have gone on, as long
+        // as the checkpoint is of the same map, population size and mutation rate
+        int checkpointInterval = 50;
+        Path checkpointFile = Paths.get("ga.checkpoint");
+        boolean resume = false;
 
-        List<List<Point>> population = initializePopulation(populationSize, conf);
         List<Point> bestSolution = null;
+        IPath bestPath = null;
         double bestFitness = Double.MAX_VALUE;
         int bestGeneration = 0;
 
-        for (int generation = 0; generation < generations; generation++) {
-            List<Double> fitnessValues = population.stream().map(path -> fitness(path, conf)).collect(Collectors.toList());
-            List<List<Point>> selected = select(population, fitnessValues);
-            List<List<Point>> offspring = crossover(selected);
-            mutate(offspring, mutationRate, conf);
-
-            population = offspring;
-
-            for (List<Point> currentPath : population) {
-                double fitness = fitness(currentPath, conf);
-                int intersections = calculateIntersections(currentPath, conf);
-
-                if (intersections == 0 && (bestSolution == null || fitness < bestFitness)) {
-                    bestFitness = fitness;
-                    bestSolution = currentPath;
-                    bestIntersections = intersections;
-                    bestGeneration = generation;
-                } else if (intersections < bestIntersections) {
-                    bestFitness = fitness;
-                    bestSolution = currentPath;
-                    bestIntersections = intersections;
-                    bestGeneration = generation;
+        if (hierarchical) {
+            HierarchicalPlanner planner = new HierarchicalPlanner(conf, 0, runSeed);
+            bestPath = planner.plan(legGenerations);
+            if (bestPath == null)
+                System.out.println("Não existe caminho sem interseções.");
+            System.out.println("Corredor: " + planner.getCorridorCells() + " células de "
+                    + planner.getCorridorCellSize() + " px, " + planner.getLegs() + " trechos, "
+                    + planner.getFallbackLegs() + " planeados de novo");
+            if (bestPath != null) {
+                bestSolution = new ArrayList<>();
+                for (IPoint p : bestPath.getPoints())
+                    bestSolution.add(new Point(p.getX(), p.getY()));
+                bestFitness = fitness(bestSolution, index);
+                bestIntersections = planner.getIntersections();
+                bestGeneration = legGenerations;
+            }
+        } else if (islandModel && islandProcesses > 0) {
+            DistributedIslands model = new DistributedIslands(conf, islandProcesses, populationSize,
+                    migrationInterval, migrants, mutationRate, runSeed);
+            model.run(generations);
+            System.out.println("Processos: " + islandProcesses + ", falhas: " + model.getFailures());
+            if (model.getBest() != null) {
+                bestFitness = model.getBestFitness();
+                bestIntersections = model.getBestIntersections();
+                bestGeneration = model.getBestGeneration();
+                bestSolution = model.getBest().toPoints(0);
+                bestPath = model.getBest().toPath(0);
+            }
+        } else if (islandModel) {
+            IslandModel model = new IslandModel(conf, parallelism, populationSize, migrationInterval, migrants,
+                    mutationRate, runSeed);
+            model.run(generations);
+            if (model.getBest() != null) {
+                bestFitness = model.getBestFitness();
+                bestIntersections = model.getBestIntersections();
+                bestGeneration = model.getBestGeneration();
+                bestSolution = model.getBest().toPoints(0);
+                bestPath = model.getBest().toPath(0);
+            }
+        } else if (primitivePopulation) {
+            Checkpoint checkpoint = resume && Files.exists(checkpointFile) ? Checkpoint.read(checkpointFile) : null;
+            if (checkpoint != null && (PlanCache.version(checkpoint.getConf()) != PlanCache.version(conf)
+                    || !samePoint(checkpoint.getConf().getStart(), conf.getStart())
+                    || !samePoint(checkpoint.getConf().getEnd(), conf.getEnd())
+                    || checkpoint.getPopulation().size() != populationSize
+                    || checkpoint.getMutationRate() != mutationRate)) {
+                System.out.println("Ignorar " + checkpointFile + ": é de outro mapa ou de outros parâmetros");
+                checkpoint = null;
+            }
+            if (checkpoint != null)
+                System.out.println("Retomar da geração " + checkpoint.getGeneration() + " de " + checkpointFile);
+            boolean finished = false;
+
+            SegmentCache cache = segmentCacheSize > 0 ? new SegmentCache(index, segmentCacheSize) : null;
+            CollisionChecker checker = cache != null ? cache : index;
+            try (FitnessEvaluator evaluator = new FitnessEvaluator(checker, parallelism);
+                 LocalSearch localSearch = new LocalSearch(checker, parallelism);
+                 Checkpoint.Writer checkpoints = new Checkpoint.Writer(checkpointFile)) {
+                SplitMix rand;
+                Population population, offspring, best;
+                boolean found = false;
+                int firstGeneration;
+
+                if (checkpoint == null) {
+                    rand = new SplitMix(runSeed);
+                    List<Point> seed = visibilitySeeding ? VisibilityGraph.shortestPath(conf, index) : null;
+                    int capacity = seed == null ? MAX_POINTS : Math.max(MAX_POINTS, seed.size());
+                    population = new Population(populationSize, capacity);
+                    best = new Population(1, capacity);
+
+                    initializePopulation(population, conf, occupancy, rand);
+                    if (seed != null)
+                        seedPopulation(population, conf, seed, seededFraction, seedRadius, rand);
+                    evaluator.evaluate(population);
+
+                    // keep the seed itself, which the first crossover may lose
+                    if (seed != null && population.getIntersections(0) < bestIntersections) {
+                        bestFitness = population.getFitness(0);
+                        best.copy(0, population, 0);
+                        found = true;
+                        bestIntersections = population.getIntersections(0);
+                    }
+                    termination.start();
+                    firstGeneration = 0;
+                } else {
+                    rand = checkpoint.getRandom();
+                    population = checkpoint.getPopulation();
+                    best = checkpoint.getBest();
+                    if (best.length(0) > 0) {
+                        found = true;
+                        bestFitness = best.getFitness(0);
+                        bestIntersections = best.getIntersections(0);
+                        bestGeneration = checkpoint.getBestGeneration();
+                    }
+                    checkpoint.resume(termination);
+                    firstGeneration = checkpoint.getGeneration() + 1;
+                }
+                offspring = new Population(population.size(), population.getCapacity());
+                int[] selected = new int[population.size()];
+
+                SteadyState steady = steadyState ? new SteadyState(conf, evaluator, steadyStateChildren,
+                        eliteArchiveSize, population.getCapacity(), mutationRate, rand) : null;
+                if (steady != null && checkpoint != null && checkpoint.getArchive() != null)
+                    steady.setArchive(checkpoint.getArchive(), checkpoint.getArchived());
+
+                Termination.Reason reason = null;
+                for (int generation = firstGeneration; reason == null; generation++) {
+                    if (steady != null) {
+                        for (int step = 0; step < population.size() / steadyStateChildren; step++)
+                            steady.step(population);
+                    } else {
+                        select(population, selected, rand);
+                        crossover(population, selected, offspring, rand);
+                        mutate(offspring, mutationRate, conf, occupancy, rand);
+                        evaluator.evaluate(offspring);
+
+                        // the offspring become the population; the old population is overwritten by the next crossover
+                        Population swap = population;
+                        population = offspring;
+                        offspring = swap;
+                    }
+
+                    if (localSearchInterval > 0 && generation % localSearchInterval == 0)
+                        localSearch.improveBest(population, localSearchTop);
+
+                    for (int i = 0; i < population.size(); i++) {
+                        double fitness = population.getFitness(i);
+                        int intersections = population.getIntersections(i);
+
+                        if ((intersections == 0 && (!found || fitness < bestFitness))
+                                || intersections < bestIntersections) {
+                            bestFitness = fitness;
+                            best.copy(0, population, i);
+                            found = true;
+                            bestIntersections = intersections;
+                            bestGeneration = generation;
+                        }
+                    }
+
+                    reason = termination.check(generation, bestFitness, bestIntersections);
+
+                    int stagnation = termination.getStagnation(generation);
+                    if (reason == null && stagnation > 0 && stagnation % restartInterval == 0) {
+                        restart(population, conf, occupancy, restartFraction, rand);
+                        evaluator.evaluate(population);
+                        if (steady != null)
+                            steady.restoreArchive(population);
+                    }
+
+                    if (reason == null && checkpointInterval > 0 && (generation + 1) % checkpointInterval == 0) {
+                        checkpoints.submit(new Checkpoint(conf, mutationRate, generation, rand, termination,
+                                population, best, bestGeneration, steady != null ? steady.getArchive() : null,
+                                steady != null ? steady.getArchived() : 0).toBytes());
+                    }
+                }
+                if (found && localSearchInterval > 0 && localSearch.improve(best, 0)) {
+                    bestFitness = best.getFitness(0);
+                    bestIntersections = best.getIntersections(0);
+                }
+                System.out.println("Paragem: " + reason + " (geração " + bestGeneration + ")");
+                if (cache != null)
+                    System.out.println(cache);
+                finished = true;
+
+                if (found) {
+                    bestSolution = best.toPoints(0);
+                    bestPath = best.toPath(0);
                 }
             }
+            // the run ended normally and its checkpoints are written, so the next one starts afresh
+            if (finished)
+                Files.deleteIfExists(checkpointFile);
+        } else {
+            try (FitnessEvaluator evaluator = new FitnessEvaluator(index, parallelism)) {
+                SplittableRandom rand = new SplittableRandom(runSeed);
+                List<List<Point>> population = initializePopulation(populationSize, conf, occupancy, rand);
+                Score[] scores = evaluator.evaluate(population, null);
+
+                for (int generation = 0; generation < generations; generation++) {
+                    List<List<Point>> selected = select(population, scores, rand);
+                    List<List<Point>> offspring = crossover(selected, rand);
+                    mutate(offspring, mutationRate, conf, occupancy, rand);
+
+                    population = offspring;
+                    scores = evaluator.evaluate(population, scores);
 
-            if (bestIntersections == 0) {
-                break;
+                    for (int i = 0; i < population.size(); i++) {
+                        double fitness = scores[i].getFitness();
+                        int intersections = scores[i].getIntersections();
+
+                        if (intersections == 0 && (bestSolution == null || fitness < bestFitness)) {
+                            bestFitness = fitness;
+                            bestSolution = population.get(i);
+                            bestIntersections = intersections;
+                            bestGeneration = generation;
+                        } else if (intersections < bestIntersections) {
+                            bestFitness = fitness;
+                            bestSolution = population.get(i);
+                            bestIntersections = intersections;
+                            bestGeneration = generation;
+                        }
+                    }
+
+                    if (bestIntersections == 0) {
+                        break;
+                    }
+                }
             }
         }
 
-        if(bestIntersections != 0){
+        // the hierarchical planner already falls back to its own corridor, searched on the same kind of grid
+        if(bestIntersections != 0 && !hierarchical){
             System.out.println("Encontrar um caminho qualquer que não tenha interseções.");
-            while(bestIntersections != 0){
-                List<Point> path = new ArrayList<>();
-                path.add(new Point(conf.getStart().getX(), conf.getStart().getY()));
-                Random rand = new Random();
-                int size = rand.nextInt(5) + 1;
-                for (int j = 0; j < size; j++) {
-                    Point p;
-                    do {
-                        p = new Point(rand.nextInt(conf.getWidth()), rand.nextInt(conf.getHeight()));
-                    } while (isPointInObstacle(p, conf));
-                    path.add(p);
-                }
-                path.add(new Point(conf.getEnd().getX(), conf.getEnd().getY()));
-                double fitness = fitness(path, conf);
-                int intersections = calculateIntersections(path, conf);
-                if (intersections == 0 && (bestSolution == null || fitness < bestFitness)) {
-                    bestFitness = fitness;
-                    bestSolution = path;
-                    bestIntersections = intersections;
-                    bestGeneration = generations;
-                } else if (intersections < bestIntersections) {
-                    bestFitness = fitness;
-                    bestSolution = path;
-                    bestIntersections = intersections;
-                    bestGeneration = generations;
-                }
+            GridPlanner.Result fallback = new GridPlanner(conf, index).plan();
+            if (fallback.isFound() && fallback.getIntersections() < bestIntersections) {
+                bestFitness = fitness(fallback.getPath(), index);
+                bestSolution = fallback.getPath();
+                bestPath = null;
+                bestIntersections = fallback.getIntersections();
+                bestGeneration = generations;
+            } else if (!fallback.isFound()) {
+                System.out.println("Não existe caminho sem interseções.");
             }
         }
 
         if (bestSolution != null) {
+            System.out.println("Semente: " + runSeed);
             System.out.println("Fitness: " + bestFitness);
             System.out.println("Intersections: " + bestIntersections);
             PathViewer pv = new PathViewer(conf);
             pv.setGeneration(bestGeneration);
             pv.setFitness(bestFitness);
             pv.setStringPath(bestSolution.toString());
-            List<IPoint> iPointSolution = bestSolution.stream().map(p -> new IPoint() {
+            List<IPoint> iPointSolution = bestPath != null ? bestPath.getPoints() : bestSolution.stream().map(p -> new IPoint() {
                 @Override
                 public int getX() {
                     return p.x;
@@ -117,9 +341,114 @@ public class PathDrawingSample {
         }
     }
 
-    public static List<List<Point>> initializePopulation(int populationSize, IUIConfiguration conf) {
+    private static boolean samePoint(IPoint a, IPoint b) {
+        return a.getX() == b.getX() && a.getY() == b.getY();
+    }
+
+    public static void initializePopulation(Population population, IUIConfiguration conf, RandomGenerator rand) {
+        initializePopulation(population, conf, OccupancyGrid.of(conf), rand);
+    }
+
+    /**
+     * Fills a population with random paths between the start and the end of a map, testing the random points
+     * against the given obstacles instead of the ones cached for the map.
+     */
+    public static void initializePopulation(Population population, IUIConfiguration conf, CollisionChecker grid,
+                                            RandomGenerator rand) {
+        for (int i = 0; i < population.size(); i++)
+            randomPath(population, i, conf, grid, rand);
+    }
+
+    /**
+     * Replaces individual <code>i</code> with a random path of 1 to 5 points between the start and the end.
+     */
+    private static void randomPath(Population population, int i, IUIConfiguration conf, CollisionChecker grid,
+                                   RandomGenerator rand) {
+        population.setLength(i, 0);
+        population.add(i, conf.getStart().getX(), conf.getStart().getY());
+        int size = rand.nextInt(Math.min(5, population.getCapacity() - 2)) + 1;
+        for (int j = 0; j < size; j++) {
+            int x, y;
+            do {
+                x = rand.nextInt(conf.getWidth());
+                y = rand.nextInt(conf.getHeight());
+            } while (grid.contains(x, y));
+            population.add(i, x, y);
+        }
+        population.add(i, conf.getEnd().getX(), conf.getEnd().getY());
+    }
+
+    /**
+     * Partial restart after stagnation: replaces the worst individuals of a scored population with random paths. The
+     * new individuals must be evaluated before the next selection.
+     *
+     * @param population the scored population
+     * @param conf the map
+     * @param fraction the fraction of the population to replace
+     * @param rand the source of randomness
+     */
+    public static void restart(Population population, IUIConfiguration conf, double fraction, RandomGenerator rand) {
+        restart(population, conf, OccupancyGrid.of(conf), fraction, rand);
+    }
+
+    /**
+     * Partial restart after stagnation, testing the random points against the given obstacles.
+     */
+    public static void restart(Population population, IUIConfiguration conf, CollisionChecker grid, double fraction,
+                               RandomGenerator rand) {
+        Integer[] order = new Integer[population.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(population.getFitness(b), population.getFitness(a)));
+
+        int count = Math.min(population.size(), (int) Math.round(population.size() * fraction));
+        for (int k = 0; k < count; k++)
+            randomPath(population, order[k], conf, grid, rand);
+    }
+
+    /**
+     * Replaces the first individuals of a population with a given path and variants of it, in which every point
+     * between the start and the end is moved by up to <code>radius</code> pixels in each direction. A point that
+     * would fall inside an obstacle or outside the map keeps its original position.
+     *
+     * @param population an initialized population, with room for the points of the seed
+     * @param conf the map
+     * @param seed the path to inject, start and end included
+     * @param fraction the fraction of the population to replace (at least the seed itself is injected)
+     * @param radius the maximum displacement of each point of a variant
+     * @param rand the source of randomness
+     */
+    public static void seedPopulation(Population population, IUIConfiguration conf, List<Point> seed,
+                                      double fraction, int radius, RandomGenerator rand) {
+        CollisionChecker grid = OccupancyGrid.of(conf);
+        int count = Math.max(1, Math.min(population.size(), (int) Math.round(population.size() * fraction)));
+
+        for (int i = 0; i < count; i++) {
+            population.setLength(i, 0);
+            for (int k = 0; k < seed.size(); k++) {
+                Point p = seed.get(k);
+                int x = p.x, y = p.y;
+                if (i > 0 && k > 0 && k < seed.size() - 1) {
+                    int nx = p.x + rand.nextInt(2 * radius + 1) - radius;
+                    int ny = p.y + rand.nextInt(2 * radius + 1) - radius;
+                    if (nx >= 0 && ny >= 0 && nx < conf.getWidth() && ny < conf.getHeight() && !grid.contains(nx, ny)) {
+                        x = nx;
+                        y = ny;
+                    }
+                }
+                population.add(i, x, y);
+            }
+        }
+    }
+
+    public static List<List<Point>> initializePopulation(int populationSize, IUIConfiguration conf,
+                                                         RandomGenerator rand) {
+        return initializePopulation(populationSize, conf, OccupancyGrid.of(conf), rand);
+    }
+
+    public static List<List<Point>> initializePopulation(int populationSize, IUIConfiguration conf,
+                                                         CollisionChecker grid, RandomGenerator rand) {
         List<List<Point>> population = new ArrayList<>();
-        Random rand = new Random();
         for (int i = 0; i < populationSize; i++) {
             List<Point> path = new ArrayList<>();
             path.add(new Point(conf.getStart().getX(), conf.getStart().getY()));
@@ -128,7 +457,7 @@ public class PathDrawingSample {
                 Point p;
                 do {
                     p = new Point(rand.nextInt(conf.getWidth()), rand.nextInt(conf.getHeight()));
-                } while (isPointInObstacle(p, conf));
+                } while (grid.contains(p.x, p.y));
                 path.add(p);
             }
             path.add(new Point(conf.getEnd().getX(), conf.getEnd().getY()));
@@ -137,16 +466,54 @@ public class PathDrawingSample {
         return population;
     }
 
+    /**
+     * Tells if a point is inside an obstacle of a map. The occupancy of the map is looked up on every call, which
+     * checks every obstacle; loops should hold a {@link CollisionChecker} and use
+     * {@link #isPointInObstacle(int, int, CollisionChecker)}.
+     */
     public static boolean isPointInObstacle(Point p, IUIConfiguration conf) {
-        for (Rectangle obstacle : conf.getObstacles()) {
-            if (obstacle.contains(p)) {
-                return true;
-            }
+        return isPointInObstacle(p.x, p.y, OccupancyGrid.of(conf));
+    }
+
+    /**
+     * Tells if a point is inside an obstacle of a map, looking up its occupancy on every call like
+     * {@link #isPointInObstacle(Point, IUIConfiguration)}.
+     */
+    public static boolean isPointInObstacle(int x, int y, IUIConfiguration conf) {
+        return isPointInObstacle(x, y, OccupancyGrid.of(conf));
+    }
+
+    public static boolean isPointInObstacle(int x, int y, CollisionChecker grid) {
+        return grid.contains(x, y);
+    }
+
+    public static void score(List<Point> path, IUIConfiguration conf, Score score) {
+        score(path, ObstacleGrid.of(conf), score);
+    }
+
+    public static void score(List<Point> path, CollisionChecker grid, Score score) {
+        double distance = 0;
+        int intersections = 0;
+
+        for (int i = 0; i < path.size() - 1; i++) {
+            Point p1 = path.get(i);
+            Point p2 = path.get(i + 1);
+            distance += p1.distance(p2);
+            intersections += grid.countIntersections(p1.x, p1.y, p2.x, p2.y);
         }
-        return false;
+
+        score.set(distance, intersections);
     }
 
+    /**
+     * Returns the fitness of a path on a map. The index of the map is looked up on every call, which checks every
+     * obstacle; loops should hold a {@link CollisionChecker} and use {@link #fitness(List, CollisionChecker)}.
+     */
     public static double fitness(List<Point> path, IUIConfiguration conf) {
+        return fitness(path, ObstacleGrid.of(conf));
+    }
+
+    public static double fitness(List<Point> path, CollisionChecker grid) {
         double distance = 0;
         int intersections = 0;
 
@@ -154,37 +521,34 @@ public class PathDrawingSample {
             Point p1 = path.get(i);
             Point p2 = path.get(i + 1);
             distance += p1.distance(p2);
-
-            Line2D.Double line = new Line2D.Double(p1, p2);
-            for (Rectangle obstacle : conf.getObstacles()) {
-                if (obstacle.intersectsLine(line)) {
-                    intersections++;
-                }
-            }
+            intersections += grid.countIntersections(p1.x, p1.y, p2.x, p2.y);
         }
 
-        return distance + intersections * 10000;
+        return distance + intersections * INTERSECTION_PENALTY;
     }
 
+    /**
+     * Counts the intersections of a path with the obstacles of a map, looking up its index on every call like
+     * {@link #fitness(List, IUIConfiguration)}.
+     */
     public static int calculateIntersections(List<Point> path, IUIConfiguration conf) {
+        return calculateIntersections(path, ObstacleGrid.of(conf));
+    }
+
+    public static int calculateIntersections(List<Point> path, CollisionChecker grid) {
         int intersections = 0;
 
         for (int i = 0; i < path.size() - 1; i++) {
             Point p1 = path.get(i);
             Point p2 = path.get(i + 1);
-            Line2D.Double line = new Line2D.Double(p1, p2);
-            for (Rectangle obstacle : conf.getObstacles()) {
-                if (obstacle.intersectsLine(line)) {
-                    intersections++;
-                }
-            }
+            intersections += grid.countIntersections(p1.x, p1.y, p2.x, p2.y);
         }
         return intersections;
     }
 
-    public static List<List<Point>> select(List<List<Point>> population, List<Double> fitnessValues) {
+    public static List<List<Point>> select(List<List<Point>> population, List<Double> fitnessValues,
+                                           RandomGenerator rand) {
         List<List<Point>> selected = new ArrayList<>();
-        Random rand = new Random();
         for (int i = 0; i < population.size(); i++) {
             int idx1 = rand.nextInt(population.size());
             int idx2 = rand.nextInt(population.size());
@@ -197,9 +561,37 @@ public class PathDrawingSample {
         return selected;
     }
 
-    public static List<List<Point>> crossover(List<List<Point>> selected) {
+    public static List<List<Point>> select(List<List<Point>> population, Score[] scores, RandomGenerator rand) {
+        List<List<Point>> selected = new ArrayList<>();
+        for (int i = 0; i < population.size(); i++) {
+            int idx1 = rand.nextInt(population.size());
+            int idx2 = rand.nextInt(population.size());
+            if (scores[idx1].getFitness() < scores[idx2].getFitness()) {
+                selected.add(population.get(idx1));
+            } else {
+                selected.add(population.get(idx2));
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Tournament selection over a population stored in primitive arrays.
+     *
+     * @param population the scored population
+     * @param selected receives the index of each selected individual
+     * @param rand the source of randomness
+     */
+    public static void select(Population population, int[] selected, RandomGenerator rand) {
+        for (int i = 0; i < selected.length; i++) {
+            int idx1 = rand.nextInt(population.size());
+            int idx2 = rand.nextInt(population.size());
+            selected[i] = population.getFitness(idx1) < population.getFitness(idx2) ? idx1 : idx2;
+        }
+    }
+
+    public static List<List<Point>> crossover(List<List<Point>> selected, RandomGenerator rand) {
         List<List<Point>> offspring = new ArrayList<>();
-        Random rand = new Random();
         for (int i = 0; i < selected.size(); i += 2) {
             List<Point> parent1 = selected.get(i);
             List<Point> parent2 = selected.get((i + 1) % selected.size());
@@ -217,15 +609,69 @@ public class PathDrawingSample {
         return offspring;
     }
 
-    public static void mutate(List<List<Point>> population, double mutationRate, IUIConfiguration conf) {
-        Random rand = new Random();
+    /**
+     * One-point crossover of the selected parents, writing the children into <code>offspring</code>, which must not
+     * be the same population as <code>parents</code>.
+     *
+     * @param parents the current population
+     * @param selected the indices of the selected parents, as filled by
+     *                 {@link #select(Population, int[], RandomGenerator)}
+     * @param offspring receives the children
+     * @param rand the source of randomness
+     */
+    public static void crossover(Population parents, int[] selected, Population offspring, RandomGenerator rand) {
+        for (int i = 0; i < offspring.size(); i += 2) {
+            int parent1 = selected[i];
+            int parent2 = selected[(i + 1) % selected.length];
+            int length1 = parents.length(parent1), length2 = parents.length(parent2);
+            int crossoverPoint = rand.nextInt(Math.min(length1, length2));
+
+            offspring.setLength(i, 0);
+            offspring.append(i, parents, parent1, 0, crossoverPoint);
+            offspring.append(i, parents, parent2, crossoverPoint, length2);
+
+            if (i + 1 < offspring.size()) {
+                offspring.setLength(i + 1, 0);
+                offspring.append(i + 1, parents, parent2, 0, crossoverPoint);
+                offspring.append(i + 1, parents, parent1, crossoverPoint, length1);
+            }
+        }
+    }
+
+    public static void mutate(Population population, double mutationRate, IUIConfiguration conf, RandomGenerator rand) {
+        mutate(population, mutationRate, conf, OccupancyGrid.of(conf), rand);
+    }
+
+    public static void mutate(Population population, double mutationRate, IUIConfiguration conf, CollisionChecker grid,
+                              RandomGenerator rand) {
+        for (int i = 0; i < population.size(); i++) {
+            // a path with only the start and the end, like a visibility seed that sees the end, has no point to move
+            if (rand.nextDouble() < mutationRate && population.length(i) > 2) {
+                int mutationPoint = rand.nextInt(population.length(i) - 2) + 1;
+                int x, y;
+                do {
+                    x = rand.nextInt(conf.getWidth());
+                    y = rand.nextInt(conf.getHeight());
+                } while (grid.contains(x, y));
+                population.set(i, mutationPoint, x, y);
+            }
+        }
+    }
+
+    public static void mutate(List<List<Point>> population, double mutationRate, IUIConfiguration conf,
+                              RandomGenerator rand) {
+        mutate(population, mutationRate, conf, OccupancyGrid.of(conf), rand);
+    }
+
+    public static void mutate(List<List<Point>> population, double mutationRate, IUIConfiguration conf,
+                              CollisionChecker grid, RandomGenerator rand) {
         for (List<Point> path : population) {
-            if (rand.nextDouble() < mutationRate) {
+            if (rand.nextDouble() < mutationRate && path.size() > 2) {
                 int mutationPoint = rand.nextInt(path.size() - 2) + 1;
                 Point newPoint;
                 do {
                     newPoint = new Point(rand.nextInt(conf.getWidth()), rand.nextInt(conf.getHeight()));
-                } while (isPointInObstacle(newPoint, conf));
+                } while (grid.contains(newPoint.x, newPoint.y));
                 path.set(mutationPoint, newPoint);
             }
         }
@@ -0,0 +1,182 @@
+package maps;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+import interf.IPath;
+import interf.IUIConfiguration;
+
+/**
+ * Anytime path planner: runs the genetic algorithm of {@link PathDrawingSample} on a map until a time or generation
+ * budget expires and returns the best path found so far, so it can be called from a robot without going over its
+ * time per turn.
+ * <p>
+ * Each call to <code>plan</code> takes a snapshot of the obstacles, the start and the end of the map, so the
+ * configuration can keep changing afterwards. The search stops early when a path without intersections is found.
+ * The budget is checked between generations, and a generation is not started when the previous one, repeated, would
+ * not end in time. The initial population is always built and scored, so a call lasts at least that long.
+ */
+public class PathPlanner
+{
+    private final IUIConfiguration conf;
+    private final int populationSize;
+    private final double mutationRate;
+    private final RandomGenerator rand;
+
+    private double fitness = Double.MAX_VALUE;
+    private int intersections = Integer.MAX_VALUE;
+    private int generations;
+
+    /**
+     * Creates a planner with the population size and mutation rate of {@link PathDrawingSample}.
+     *
+     * @param conf the map, including the start and the end of the path
+     */
+    public PathPlanner(IUIConfiguration conf)
+    {
+        this(conf, 100, 0.05, new SplittableRandom());
+    }
+
+    /**
+     * Creates a planner.
+     *
+     * @param conf the map, including the start and the end of the path
+     * @param populationSize the number of individuals of the genetic algorithm
+     * @param mutationRate the probability that an individual is mutated
+     * @param rand the source of randomness
+     */
+    public PathPlanner(IUIConfiguration conf, int populationSize, double mutationRate, RandomGenerator rand)
+    {
+        if (populationSize < 2)
+            throw new IllegalArgumentException("populationSize must be at least 2: " + populationSize);
+
+        this.conf = conf;
+        this.populationSize = populationSize;
+        this.mutationRate = mutationRate;
+        this.rand = rand;
+    }
+
+    /**
+     * Plans a path within a wall-clock budget.
+     *
+     * @param budget the maximum time to spend
+     * @param unit the unit of <code>budget</code>
+     * @return the best path found
+     */
+    public IPath plan(long budget, TimeUnit unit)
+    {
+        return plan(unit.toNanos(budget), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Plans a path within a number of generations.
+     *
+     * @param maxGenerations the maximum number of generations to run
+     * @return the best path found
+     */
+    public IPath plan(int maxGenerations)
+    {
+        return plan(Long.MAX_VALUE, maxGenerations);
+    }
+
+    /**
+     * Plans a path within a wall-clock budget and a number of generations, whichever expires first.
+     *
+     * @param budgetNanos the maximum time to spend, in nanoseconds
+     * @param maxGenerations the maximum number of generations to run
+     * @return the best path found, from the start to the end of the map
+     */
+    public IPath plan(long budgetNanos, int maxGenerations)
+    {
+        long start = System.nanoTime();
+        IUIConfiguration snapshot = snapshot(conf);
+        CollisionChecker grid = new ObstacleGrid(snapshot.getObstacles(), snapshot.getWidth(), snapshot.getHeight());
+
+        Population population = new Population(populationSize, PathDrawingSample.MAX_POINTS);
+        Population offspring = new Population(populationSize, PathDrawingSample.MAX_POINTS);
+        Population best = new Population(1, PathDrawingSample.MAX_POINTS);
+        int[] selected = new int[populationSize];
+
+        try (FitnessEvaluator evaluator = new FitnessEvaluator(grid, 1)) {
+            PathDrawingSample.initializePopulation(population, snapshot, grid, rand);
+            evaluator.evaluate(population);
+            track(population, best, true);
+
+            // a generation only starts if the previous one, repeated, would still end within the budget
+            int generation = 0;
+            long now = System.nanoTime(), last = 0;
+            while (generation < maxGenerations && best.getIntersections(0) > 0 && now - start + last < budgetNanos) {
+                PathDrawingSample.select(population, selected, rand);
+                PathDrawingSample.crossover(population, selected, offspring, rand);
+                PathDrawingSample.mutate(offspring, mutationRate, snapshot, grid, rand);
+                evaluator.evaluate(offspring);
+
+                Population swap = population;
+                population = offspring;
+                offspring = swap;
+
+                track(population, best, false);
+                generation++;
+
+                long end = System.nanoTime();
+                last = end - now;
+                now = end;
+            }
+            generations = generation;
+        }
+
+        fitness = best.getFitness(0);
+        intersections = best.getIntersections(0);
+        return best.toPath(0);
+    }
+
+    private static void track(Population population, Population best, boolean first)
+    {
+        for (int i = 0; i < population.size(); i++) {
+            if (first || population.getFitness(i) < best.getFitness(0)) {
+                best.copy(0, population, i);
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Copies the parts of a configuration that the search reads, so that the obstacles can change while planning.
+     * Code that plans on another thread must take the snapshot on the thread that changes the obstacles.
+     *
+     * @param conf the map, including the start and the end of the path
+     * @return a copy of the size, the obstacle list, the start and the end of the map
+     */
+    public static IUIConfiguration snapshot(IUIConfiguration conf)
+    {
+        impl.UIConfiguration copy = new impl.UIConfiguration(conf.getWidth(), conf.getHeight(),
+                new ArrayList<Rectangle>(conf.getObstacles()));
+        copy.setStart(new impl.Point(conf.getStart().getX(), conf.getStart().getY()));
+        copy.setEnd(new impl.Point(conf.getEnd().getX(), conf.getEnd().getY()));
+        return copy;
+    }
+
+    /**
+     * Returns the fitness of the path returned by the last call to <code>plan</code>.
+     */
+    public double getFitness() {
+        return fitness;
+    }
+
+    /**
+     * Returns the number of intersections of the path returned by the last call to <code>plan</code>.
+     */
+    public int getIntersections() {
+        return intersections;
+    }
+
+    /**
+     * Returns the number of generations run by the last call to <code>plan</code>.
+     */
+    public int getGenerations() {
+        return generations;
+    }
+}
@@ -0,0 +1,183 @@
+package maps;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import interf.IPath;
+import interf.IPoint;
+import interf.IUIConfiguration;
+
+/**
+ * Incremental repair of a path after the obstacles of a map change, so a robot whose map changes at every scan does
+ * not have to plan again from scratch.
+ * <p>
+ * Removing an obstacle never breaks a path, so only the added obstacles are looked at: they are packed in a
+ * {@link RectangleBatch} and each segment of the path is tested against them alone. Each run of consecutive segments
+ * that touch an added obstacle is cut out, together with the waypoints that fall inside one, and the gap between the
+ * last good waypoint before it and the first good waypoint after it is bridged by a {@link VisibilityGraph} search.
+ * That search only takes as nodes the corners of the obstacles near the gap (within <code>margin</code> pixels of the
+ * bounding box of the cut), so its cost does not grow with the size of the map; the visibility of its edges is still
+ * tested against every obstacle. When there is no way round among those corners, the margin is multiplied by 4 and the
+ * search repeated, up to the whole map. The rest of the path is kept as it is.
+ */
+public class PathRepair
+{
+    /**
+     * Default distance around a cut inside which the corners of the obstacles are used for the detour, in pixels.
+     */
+    public static final int DEFAULT_MARGIN = 32;
+
+    private final IUIConfiguration conf;
+    private final CollisionChecker grid;
+    private final int margin;
+
+    private int brokenSegments, detours;
+
+    /**
+     * Creates a repairer with the default margin.
+     *
+     * @param conf the map with its current obstacles
+     * @param grid the current obstacles of the map
+     */
+    public PathRepair(IUIConfiguration conf, CollisionChecker grid)
+    {
+        this(conf, grid, DEFAULT_MARGIN);
+    }
+
+    /**
+     * Creates a repairer.
+     *
+     * @param conf the map with its current obstacles
+     * @param grid the current obstacles of the map
+     * @param margin the distance around a cut inside which the corners of the obstacles are used, in pixels
+     */
+    public PathRepair(IUIConfiguration conf, CollisionChecker grid, int margin)
+    {
+        if (margin < 0)
+            throw new IllegalArgumentException("margin must not be negative: " + margin);
+
+        this.conf = conf;
+        this.grid = grid;
+        this.margin = margin;
+    }
+
+    /**
+     * Repairs a path after some obstacles were added to the map.
+     *
+     * @param path the path, start and end included, which was valid before the change
+     * @param added the obstacles added since the path was valid
+     * @return the same path if no added obstacle touches it, a repaired path with the same start and end, or null if
+     *         the start or the end is inside an added obstacle or some gap cannot be bridged
+     */
+    public IPath repair(IPath path, List<Rectangle> added)
+    {
+        brokenSegments = 0;
+        detours = 0;
+
+        List<IPoint> points = path.getPoints();
+        RectangleBatch changed = new RectangleBatch(added);
+        int n = points.size();
+        if (changed.size() == 0 || n < 2)
+            return path;
+        if (contains(changed, points.get(0)) || contains(changed, points.get(n - 1)))
+            return null;
+
+        List<IPoint> repaired = null;
+        for (int k = 0; k < n - 1; k++) {
+            if (!intersects(changed, points.get(k), points.get(k + 1))) {
+                if (repaired != null)
+                    repaired.add(points.get(k + 1));
+                continue;
+            }
+
+            if (repaired == null)
+                repaired = new ArrayList<>(points.subList(0, k + 1));
+
+            // cut out the broken segments that follow and the waypoints that the added obstacles swallowed
+            int from = k, to = k + 1;
+            while (to < n - 1 && (contains(changed, points.get(to))
+                                  || intersects(changed, points.get(to), points.get(to + 1))))
+                to++;
+            brokenSegments += to - from;
+
+            List<Point> detour = detour(points, from, to);
+            if (detour == null)
+                return null;
+            detours++;
+            for (int d = 1; d < detour.size(); d++)
+                repaired.add(new impl.Point(detour.get(d).x, detour.get(d).y));
+            k = to - 1;
+        }
+
+        if (repaired == null)
+            return path;
+        impl.Path result = new impl.Path();
+        result.setPoints(repaired);
+        return result;
+    }
+
+    /**
+     * Finds a path between waypoints <code>from</code> and <code>to</code> among the obstacles near them, widening the
+     * neighbourhood until a path is found or it covers the whole map.
+     */
+    private List<Point> detour(List<IPoint> points, int from, int to)
+    {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int k = from; k <= to; k++) {
+            minX = Math.min(minX, points.get(k).getX());
+            minY = Math.min(minY, points.get(k).getY());
+            maxX = Math.max(maxX, points.get(k).getX());
+            maxY = Math.max(maxY, points.get(k).getY());
+        }
+
+        IPoint start = points.get(from), end = points.get(to);
+        int all = conf.getObstacles().size();
+        for (long m = Math.max(1, margin); ; m *= 4) {
+            List<Rectangle> near = conf.getObstacles();
+            if (m < Math.max(conf.getWidth(), conf.getHeight())) {
+                Rectangle window = new Rectangle(minX - (int) m, minY - (int) m, maxX - minX + 2 * (int) m,
+                                                 maxY - minY + 2 * (int) m);
+                near = new ArrayList<>();
+                for (Rectangle r : conf.getObstacles())
+                    if (window.intersects(r))
+                        near.add(r);
+            }
+            List<Point> detour = search(near, start, end);
+            if (detour != null || near.size() == all)
+                return detour;
+        }
+    }
+
+    private List<Point> search(List<Rectangle> obstacles, IPoint start, IPoint end)
+    {
+        impl.UIConfiguration local = new impl.UIConfiguration(conf.getWidth(), conf.getHeight(), obstacles);
+        local.setStart(new impl.Point(start.getX(), start.getY()));
+        local.setEnd(new impl.Point(end.getX(), end.getY()));
+        return VisibilityGraph.shortestPath(local, grid);
+    }
+
+    private static boolean contains(RectangleBatch obstacles, IPoint p)
+    {
+        return obstacles.contains(p.getX(), p.getY());
+    }
+
+    private static boolean intersects(RectangleBatch obstacles, IPoint a, IPoint b)
+    {
+        return obstacles.intersects(a.getX(), a.getY(), b.getX(), b.getY());
+    }
+
+    /**
+     * Returns the number of segments cut out by the last repair.
+     */
+    public int getBrokenSegments() {
+        return brokenSegments;
+    }
+
+    /**
+     * Returns the number of detours planned by the last repair.
+     */
+    public int getDetours() {
+        return detours;
+    }
+}
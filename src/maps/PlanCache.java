@@ -0,0 +1,275 @@
+package maps;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import impl.Path;
+import interf.IPath;
+import interf.IPoint;
+import interf.IUIConfiguration;
+
+/**
+ * Size-bounded cache of planned paths, so that asking again for a path between nearly the same points of an unchanged
+ * map (clicking repeatedly near the same target, or re-planning every few turns) does not run the planner again.
+ * <p>
+ * A path is stored under the {@link #version(IUIConfiguration) version} of the obstacles of its map and its start and
+ * end quantized to cells of <code>cellSize</code> pixels. A hit is not returned blindly: the start and the end of the
+ * cached path are replaced by the exact points asked for, and every segment is tested against the current obstacles,
+ * which costs a few segment queries instead of a search. Only paths that touch no obstacle are returned; an entry that
+ * fails the test is dropped and counted as rejected. When the cache is full, the least recently used entry is evicted.
+ * <p>
+ * The cache can be shared between threads. The lookup holds a lock, the test against the obstacles does not.
+ */
+public class PlanCache
+{
+    private final int capacity, cellSize;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity the maximum number of paths to remember (at least 1)
+     * @param cellSize the size of the cells the start and the end are quantized to, in pixels (at least 1)
+     */
+    public PlanCache(int capacity, int cellSize)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        if (cellSize < 1)
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+
+        this.capacity = capacity;
+        this.cellSize = cellSize;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= PlanCache.this.capacity)
+                    return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a hash of the size and the obstacles of a map that does not depend on the order of the obstacles, so
+     * that removing an obstacle and adding it back gives the same version.
+     *
+     * @param conf the map
+     * @return the version of its obstacles
+     */
+    public static long version(IUIConfiguration conf)
+    {
+        long version = mix(((long) conf.getWidth() << 32) | (conf.getHeight() & 0xffffffffL));
+        for (Rectangle r : conf.getObstacles()) {
+            long corner = ((long) r.x << 32) | (r.y & 0xffffffffL);
+            long size = ((long) r.width << 32) | (r.height & 0xffffffffL);
+            version += mix(mix(corner) ^ size);
+        }
+        return version;
+    }
+
+    /**
+     * Finalizer of SplitMix64, which spreads every input bit over the whole result.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Looks up a path between the start and the end of a map.
+     *
+     * @param conf the map, including the start and the end of the path
+     * @param grid the current obstacles of the map, used to test the cached path
+     * @return a path from the exact start to the exact end that touches no obstacle, or null if there is none
+     */
+    public IPath get(IUIConfiguration conf, CollisionChecker grid)
+    {
+        Key key = key(conf);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        IPoint start = conf.getStart(), end = conf.getEnd();
+        int last = entry.xs.length - 1;
+        for (int k = 0; k < last; k++) {
+            int x1 = k == 0 ? start.getX() : entry.xs[k], y1 = k == 0 ? start.getY() : entry.ys[k];
+            int x2 = k + 1 == last ? end.getX() : entry.xs[k + 1], y2 = k + 1 == last ? end.getY() : entry.ys[k + 1];
+            if (grid.intersects(x1, y1, x2, y2)) {
+                synchronized (entries) {
+                    entries.remove(key, entry);
+                }
+                rejected.increment();
+                misses.increment();
+                return null;
+            }
+        }
+
+        hits.increment();
+        List<IPoint> points = new ArrayList<>(entry.xs.length);
+        points.add(new impl.Point(start.getX(), start.getY()));
+        for (int k = 1; k < last; k++)
+            points.add(new impl.Point(entry.xs[k], entry.ys[k]));
+        points.add(new impl.Point(end.getX(), end.getY()));
+        Path path = new Path();
+        path.setPoints(points);
+        return path;
+    }
+
+    /**
+     * Remembers the path planned between the start and the end of a map, replacing any path stored for the same
+     * cells. Paths that touch obstacles may be stored but are never returned by {@link #get}.
+     *
+     * @param conf the map the path was planned on, including its start and end
+     * @param path the path, start and end included
+     */
+    public void put(IUIConfiguration conf, IPath path)
+    {
+        List<IPoint> points = path.getPoints();
+        if (points.size() < 2)
+            throw new IllegalArgumentException("a path has at least 2 points: " + points.size());
+
+        int[] xs = new int[points.size()], ys = new int[points.size()];
+        for (int k = 0; k < xs.length; k++) {
+            xs[k] = points.get(k).getX();
+            ys[k] = points.get(k).getY();
+        }
+        Key key = key(conf);
+        synchronized (entries) {
+            entries.put(key, new Entry(xs, ys));
+        }
+    }
+
+    private Key key(IUIConfiguration conf)
+    {
+        IPoint start = conf.getStart(), end = conf.getEnd();
+        return new Key(version(conf), Math.floorDiv(start.getX(), cellSize), Math.floorDiv(start.getY(), cellSize),
+                       Math.floorDiv(end.getX(), cellSize), Math.floorDiv(end.getY(), cellSize));
+    }
+
+    /**
+     * Forgets every cached path. The statistics are kept.
+     */
+    public void clear()
+    {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that returned no path, rejected ones included.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of cached paths dropped because they touched the current obstacles.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups answered by the cache.
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    public double getHitRate()
+    {
+        long hits = getHits(), total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PlanCache{capacity=%d, cellSize=%d, size=%d, hits=%d, misses=%d, evictions=%d, "
+                + "rejected=%d, hitRate=%.3f}", getCapacity(), getCellSize(), size(), getHits(), getMisses(),
+                getEvictions(), getRejected(), getHitRate());
+    }
+
+    private static class Key
+    {
+        private final long version;
+        private final int startX, startY, endX, endY;
+
+        private Key(long version, int startX, int startY, int endX, int endY) {
+            this.version = version;
+            this.startX = startX;
+            this.startY = startY;
+            this.endX = endX;
+            this.endY = endY;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return version == other.version && startX == other.startX && startY == other.startY
+                    && endX == other.endX && endY == other.endY;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = Long.hashCode(version);
+            hash = 31 * hash + startX;
+            hash = 31 * hash + startY;
+            hash = 31 * hash + endX;
+            return 31 * hash + endY;
+        }
+    }
+
+    private static class Entry
+    {
+        private final int[] xs, ys;
+
+        private Entry(int[] xs, int[] ys) {
+            this.xs = xs;
+            this.ys = ys;
+        }
+    }
+}
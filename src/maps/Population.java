@@ -0,0 +1,196 @@
+package maps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import impl.Path;
+import interf.IPath;
+import interf.IPoint;
+
+/**
+ * Population of paths stored in flat primitive arrays, as an alternative to <code>List&lt;List&lt;Point&gt;&gt;</code>.
+ * <p>
+ * Individual <code>i</code> owns the slots <code>i * capacity .. i * capacity + length(i) - 1</code> of the coordinate
+ * arrays, and its length, intersections and fitness are kept in parallel arrays. The genetic algorithm keeps two
+ * instances and writes each generation into the one that is not being read, so a generation runs without
+ * allocating.
+ */
+public class Population
+{
+    private final int size, capacity;
+    private final int[] xs, ys, lengths;
+    private final double[] distances, fitness;
+    private final int[] intersections;
+
+    /**
+     * Creates an empty population.
+     *
+     * @param size the number of individuals
+     * @param capacity the maximum number of points of an individual, start and end included
+     */
+    public Population(int size, int capacity)
+    {
+        if (size < 1)
+            throw new IllegalArgumentException("size must be positive: " + size);
+        if (capacity < 2)
+            throw new IllegalArgumentException("capacity must be at least 2: " + capacity);
+
+        this.size = size;
+        this.capacity = capacity;
+        this.xs = new int[size * capacity];
+        this.ys = new int[size * capacity];
+        this.lengths = new int[size];
+        this.distances = new double[size];
+        this.fitness = new double[size];
+        this.intersections = new int[size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of points of an individual, start and end included.
+     */
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    public void setLength(int i, int length)
+    {
+        if (length < 0 || length > capacity)
+            throw new IllegalArgumentException("length must be in [0, " + capacity + "]: " + length);
+        lengths[i] = length;
+    }
+
+    public int getX(int i, int point) {
+        return xs[i * capacity + point];
+    }
+
+    public int getY(int i, int point) {
+        return ys[i * capacity + point];
+    }
+
+    public void set(int i, int point, int x, int y)
+    {
+        xs[i * capacity + point] = x;
+        ys[i * capacity + point] = y;
+    }
+
+    /**
+     * Appends a point to an individual.
+     */
+    public void add(int i, int x, int y)
+    {
+        int point = lengths[i];
+        if (point == capacity)
+            throw new IllegalStateException("individual " + i + " is full");
+        set(i, point, x, y);
+        lengths[i] = point + 1;
+    }
+
+    /**
+     * Copies the points <code>from .. to - 1</code> of an individual of another population (or of this one) to the
+     * end of individual <code>i</code>. The length, intersections and fitness are not copied.
+     */
+    public void append(int i, Population source, int j, int from, int to)
+    {
+        int point = lengths[i];
+        if (point + to - from > capacity)
+            throw new IllegalStateException("individual " + i + " is full");
+        System.arraycopy(source.xs, j * source.capacity + from, xs, i * capacity + point, to - from);
+        System.arraycopy(source.ys, j * source.capacity + from, ys, i * capacity + point, to - from);
+        lengths[i] = point + to - from;
+    }
+
+    /**
+     * Replaces individual <code>i</code> with a copy of individual <code>j</code> of another population, including
+     * its score.
+     */
+    public void copy(int i, Population source, int j)
+    {
+        lengths[i] = 0;
+        append(i, source, j, 0, source.lengths[j]);
+        distances[i] = source.distances[j];
+        intersections[i] = source.intersections[j];
+        fitness[i] = source.fitness[j];
+    }
+
+    /**
+     * Computes the length, intersections and fitness of an individual.
+     *
+     * @param i the individual
+     * @param grid the obstacles of the map
+     */
+    public void score(int i, CollisionChecker grid)
+    {
+        int offset = i * capacity;
+        double distance = 0;
+        int count = 0;
+
+        for (int k = offset; k < offset + lengths[i] - 1; k++) {
+            double dx = xs[k + 1] - xs[k], dy = ys[k + 1] - ys[k];
+            distance += Math.sqrt(dx * dx + dy * dy);
+            count += grid.countIntersections(xs[k], ys[k], xs[k + 1], ys[k + 1]);
+        }
+
+        distances[i] = distance;
+        intersections[i] = count;
+        fitness[i] = distance + count * PathDrawingSample.INTERSECTION_PENALTY;
+    }
+
+    /**
+     * Sets the score of an individual computed elsewhere, for instance read back from a {@link Checkpoint}.
+     *
+     * @param i the individual
+     * @param distance the length of the path
+     * @param intersections the number of obstacles touched by the path
+     */
+    public void setScore(int i, double distance, int intersections)
+    {
+        distances[i] = distance;
+        this.intersections[i] = intersections;
+        fitness[i] = distance + intersections * PathDrawingSample.INTERSECTION_PENALTY;
+    }
+
+    public double getDistance(int i) {
+        return distances[i];
+    }
+
+    public int getIntersections(int i) {
+        return intersections[i];
+    }
+
+    public double getFitness(int i) {
+        return fitness[i];
+    }
+
+    /**
+     * Returns a copy of an individual as an {@link IPath}, for instance to show it in a {@link viewer.PathViewer}.
+     */
+    public IPath toPath(int i)
+    {
+        List<IPoint> points = new ArrayList<>(lengths[i]);
+        for (int k = 0; k < lengths[i]; k++)
+            points.add(new impl.Point(getX(i, k), getY(i, k)));
+
+        Path path = new Path();
+        path.setPoints(points);
+        return path;
+    }
+
+    /**
+     * Returns a copy of an individual in the representation used by the list-based genetic algorithm.
+     */
+    public List<java.awt.Point> toPoints(int i)
+    {
+        List<java.awt.Point> points = new ArrayList<>(lengths[i]);
+        for (int k = 0; k < lengths[i]; k++)
+            points.add(new java.awt.Point(getX(i, k), getY(i, k)));
+        return points;
+    }
+}
@@ -0,0 +1,376 @@
+package maps;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import interf.IPath;
+import interf.IPoint;
+import interf.IUIConfiguration;
+
+/**
+ * A map prepared for many path queries. The obstacle index ({@link ObstacleGrid}), the occupancy raster
+ * ({@link OccupancyGrid}) and the visibility graph between the corners of the obstacles are built once, from a
+ * snapshot of the map, and shared read-only by every query, so a query only tests the visibility of its own start and
+ * end against the corners and runs A* over the prepared edges.
+ * <p>
+ * Queries never change the prepared map, so they can run concurrently: {@link #plan(List, List)} spreads a batch over
+ * a {@link ForkJoinPool} of configurable parallelism, like {@link FitnessEvaluator}, and reports the time of each
+ * query and the throughput of the batch. When the visibility graph has no path (for instance because the start lies
+ * inside an obstacle), the query falls back to a {@link GridPlanner}.
+ */
+public class PreparedMap implements AutoCloseable
+{
+    private final IUIConfiguration conf;
+    private final ObstacleGrid index;
+    private final OccupancyGrid occupancy;
+    private final int[] xs, ys;
+    /**
+     * Edges between corners in compressed sparse rows: the corners visible from corner <code>c</code> are
+     * <code>targets[offsets[c] .. offsets[c + 1] - 1]</code>.
+     */
+    private final int[] offsets, targets;
+    private final ForkJoinPool pool;
+
+    /**
+     * Prepares a map with the default corner margin of {@link VisibilityGraph}.
+     *
+     * @param conf the map; its start and end are ignored
+     * @param parallelism the number of queries of a batch planned at the same time (1 plans on the calling thread)
+     */
+    public PreparedMap(IUIConfiguration conf, int parallelism)
+    {
+        this(conf, parallelism, VisibilityGraph.DEFAULT_MARGIN);
+    }
+
+    /**
+     * Prepares a map.
+     *
+     * @param conf the map; its start and end are ignored
+     * @param parallelism the number of queries of a batch planned at the same time (1 plans on the calling thread)
+     * @param margin the distance between an obstacle and the nodes placed at its corners, in pixels (at least 1)
+     */
+    public PreparedMap(IUIConfiguration conf, int parallelism, int margin)
+    {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        if (margin < 1)
+            throw new IllegalArgumentException("margin must be positive: " + margin);
+
+        this.conf = new impl.UIConfiguration(conf.getWidth(), conf.getHeight(),
+                                             new ArrayList<Rectangle>(conf.getObstacles()));
+        this.index = new ObstacleGrid(this.conf.getObstacles(), conf.getWidth(), conf.getHeight());
+        this.occupancy = new OccupancyGrid(this.conf, index, OccupancyGrid.Mode.EXACT);
+
+        int[] xs = new int[4 * this.conf.getObstacles().size()];
+        int[] ys = new int[xs.length];
+        int n = VisibilityGraph.corners(this.conf, occupancy, margin, xs, ys, 0);
+        this.xs = Arrays.copyOf(xs, n);
+        this.ys = Arrays.copyOf(ys, n);
+
+        // edges are stored in both directions, so they are only kept when clear both ways: the segment test rounds
+        // differently in rare cases depending on the direction
+        int[] degrees = new int[n + 1];
+        List<int[]> edges = new ArrayList<>();
+        for (int a = 0; a < n; a++) {
+            for (int b = a + 1; b < n; b++) {
+                if (!index.intersects(xs[a], ys[a], xs[b], ys[b]) && !index.intersects(xs[b], ys[b], xs[a], ys[a])) {
+                    edges.add(new int[] { a, b });
+                    degrees[a]++;
+                    degrees[b]++;
+                }
+            }
+        }
+        this.offsets = new int[n + 1];
+        for (int c = 0; c < n; c++)
+            offsets[c + 1] = offsets[c] + degrees[c];
+        this.targets = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int[] edge : edges) {
+            targets[fill[edge[0]]++] = edge[1];
+            targets[fill[edge[1]]++] = edge[0];
+        }
+
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * Plans one query. Safe to call from several threads at the same time.
+     *
+     * @param start the start of the path
+     * @param end the end of the path
+     * @return the path and the time it took
+     */
+    public Query plan(IPoint start, IPoint end)
+    {
+        long begin = System.nanoTime();
+        List<Point> path = search(start.getX(), start.getY(), end.getX(), end.getY());
+        int intersections = 0;
+        if (path == null) {
+            impl.UIConfiguration query = new impl.UIConfiguration(conf.getWidth(), conf.getHeight(),
+                                                                  conf.getObstacles());
+            query.setStart(new impl.Point(start.getX(), start.getY()));
+            query.setEnd(new impl.Point(end.getX(), end.getY()));
+            GridPlanner.Result fallback = new GridPlanner(query, index).plan();
+            path = fallback.getPath();
+            intersections = fallback.getIntersections();
+        }
+        return new Query(path == null ? null : toPath(path), intersections, System.nanoTime() - begin);
+    }
+
+    /**
+     * Plans a batch of queries concurrently.
+     *
+     * @param starts the start of each query
+     * @param ends the end of each query, in the same order
+     * @return the results, in the order of the queries
+     */
+    public Batch plan(List<? extends IPoint> starts, List<? extends IPoint> ends)
+    {
+        if (starts.size() != ends.size())
+            throw new IllegalArgumentException("starts and ends differ in size: " + starts.size() + " != "
+                                               + ends.size());
+
+        Query[] queries = new Query[starts.size()];
+        long begin = System.nanoTime();
+        if (pool == null) {
+            for (int i = 0; i < queries.length; i++)
+                queries[i] = plan(starts.get(i), ends.get(i));
+        } else if (queries.length > 0) {
+            pool.invoke(new PlanTask(starts, ends, queries, 0, queries.length));
+        }
+        return new Batch(Arrays.asList(queries), System.nanoTime() - begin);
+    }
+
+    /**
+     * A* from the start to the end over the prepared corners, to which the start and the end are linked when they
+     * see them.
+     *
+     * @return the points of the path, start and end included, or null if the end cannot be reached
+     */
+    private List<Point> search(int startX, int startY, int endX, int endY)
+    {
+        if (!index.intersects(startX, startY, endX, endY)) {
+            List<Point> path = new ArrayList<>(2);
+            path.add(new Point(startX, startY));
+            path.add(new Point(endX, endY));
+            return path;
+        }
+
+        // nodes 0 .. n - 1 are the corners, n is the start and n + 1 the end
+        int n = xs.length, start = n, end = n + 1;
+        boolean[] seesEnd = new boolean[n];
+        for (int c = 0; c < n; c++)
+            seesEnd[c] = !index.intersects(xs[c], ys[c], endX, endY);
+
+        double[] cost = new double[n + 2];
+        int[] parent = new int[n + 2];
+        boolean[] closed = new boolean[n + 2];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+
+        PriorityQueue<VisibilityGraph.Entry> open = new PriorityQueue<>();
+        cost[start] = 0;
+        for (int c = 0; c < n; c++) {
+            if (index.intersects(startX, startY, xs[c], ys[c]))
+                continue;
+            cost[c] = distance(startX, startY, xs[c], ys[c]);
+            parent[c] = start;
+            open.add(new VisibilityGraph.Entry(c, cost[c] + distance(xs[c], ys[c], endX, endY)));
+        }
+
+        while (!open.isEmpty()) {
+            int node = open.poll().node;
+            if (closed[node])
+                continue;
+            closed[node] = true;
+
+            if (node == end) {
+                List<Point> path = new ArrayList<>();
+                path.add(new Point(endX, endY));
+                for (int c = parent[end]; c != start; c = parent[c])
+                    path.add(new Point(xs[c], ys[c]));
+                path.add(new Point(startX, startY));
+                Collections.reverse(path);
+                return path;
+            }
+
+            if (seesEnd[node]) {
+                double candidate = cost[node] + distance(xs[node], ys[node], endX, endY);
+                if (candidate < cost[end]) {
+                    cost[end] = candidate;
+                    parent[end] = node;
+                    open.add(new VisibilityGraph.Entry(end, candidate));
+                }
+            }
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                int next = targets[e];
+                if (closed[next])
+                    continue;
+                double candidate = cost[node] + distance(xs[node], ys[node], xs[next], ys[next]);
+                if (candidate >= cost[next])
+                    continue;
+                cost[next] = candidate;
+                parent[next] = node;
+                open.add(new VisibilityGraph.Entry(next, candidate + distance(xs[next], ys[next], endX, endY)));
+            }
+        }
+        return null;
+    }
+
+    private static double distance(int x1, int y1, int x2, int y2)
+    {
+        double dx = x2 - x1, dy = y2 - y1;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static IPath toPath(List<Point> points)
+    {
+        List<IPoint> path = new ArrayList<>(points.size());
+        for (Point p : points)
+            path.add(new impl.Point(p.x, p.y));
+        impl.Path result = new impl.Path();
+        result.setPoints(path);
+        return result;
+    }
+
+    /**
+     * Returns the snapshot of the map that the queries are planned on.
+     */
+    public IUIConfiguration getConf() {
+        return conf;
+    }
+
+    /**
+     * Returns the obstacle index, which can also score paths planned on this map.
+     */
+    public CollisionChecker getIndex() {
+        return index;
+    }
+
+    public OccupancyGrid getOccupancy() {
+        return occupancy;
+    }
+
+    /**
+     * Returns the number of corners of the visibility graph.
+     */
+    public int getCorners() {
+        return xs.length;
+    }
+
+    /**
+     * Returns the number of prepared edges between corners, each counted once.
+     */
+    public int getEdges() {
+        return targets.length / 2;
+    }
+
+    @Override
+    public void close()
+    {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    /**
+     * Result of one query.
+     */
+    public static class Query
+    {
+        private final IPath path;
+        private final int intersections;
+        private final long nanos;
+
+        private Query(IPath path, int intersections, long nanos) {
+            this.path = path;
+            this.intersections = intersections;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the path, start and end included, or null if no path exists.
+         */
+        public IPath getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the number of obstacles touched by the path, which is only non-zero when the start or the end is
+         * inside or next to an obstacle.
+         */
+        public int getIntersections() {
+            return intersections;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    /**
+     * Results of a batch of queries.
+     */
+    public static class Batch
+    {
+        private final List<Query> queries;
+        private final long nanos;
+
+        private Batch(List<Query> queries, long nanos) {
+            this.queries = queries;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the results, in the order of the queries.
+         */
+        public List<Query> getQueries() {
+            return queries;
+        }
+
+        /**
+         * Returns the wall-clock time of the whole batch.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getQueriesPerSecond() {
+            return nanos == 0 ? 0 : queries.size() / (nanos / 1e9);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class PlanTask extends RecursiveAction
+    {
+        private final List<? extends IPoint> starts, ends;
+        private final Query[] queries;
+        private final int from, to;
+
+        private PlanTask(List<? extends IPoint> starts, List<? extends IPoint> ends, Query[] queries, int from,
+                         int to) {
+            this.starts = starts;
+            this.ends = ends;
+            this.queries = queries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1) {
+                queries[from] = plan(starts.get(from), ends.get(from));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new PlanTask(starts, ends, queries, from, middle),
+                      new PlanTask(starts, ends, queries, middle, to));
+        }
+    }
+}
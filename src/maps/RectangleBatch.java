@@ -0,0 +1,196 @@
+package maps;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Obstacles stored as structure of arrays (<code>int[] x, y, width, height</code>), with a kernel that tests one
+ * segment against a whole run of them. Maps with hundreds of small obstacles spend most of the fitness in that loop;
+ * reading four packed arrays instead of following a reference to each {@link Rectangle}, and rejecting most
+ * obstacles with four integer comparisons against the bounding box of the segment, makes it about twice as fast.
+ * <p>
+ * The answers are exactly those of {@link Rectangle#contains(int, int)} and
+ * {@link Rectangle#intersectsLine(double, double, double, double)}: the bounding-box test only rejects obstacles that
+ * lie entirely on one side of both endpoints, which is the first test of the clipping done by
+ * <code>intersectsLine</code>, and the other obstacles go through {@link #intersectsLine(int, int, int, int, double,
+ * double, double, double)}, a copy of that clipping on the unpacked fields. Empty obstacles are dropped, since they
+ * never touch anything. The arrays are immutable, so an instance can be shared between threads.
+ */
+public class RectangleBatch implements CollisionChecker
+{
+    private static final int OUT_LEFT = 1, OUT_TOP = 2, OUT_RIGHT = 4, OUT_BOTTOM = 8;
+
+    /**
+     * The packed obstacles, read directly by {@link ObstacleGrid}.
+     */
+    final int[] xs, ys, widths, heights;
+
+    /**
+     * Packs the non-empty obstacles of a list.
+     *
+     * @param obstacles the obstacles
+     */
+    public RectangleBatch(List<Rectangle> obstacles)
+    {
+        int n = 0;
+        for (Rectangle r : obstacles)
+            if (!r.isEmpty())
+                n++;
+        this.xs = new int[n];
+        this.ys = new int[n];
+        this.widths = new int[n];
+        this.heights = new int[n];
+
+        int i = 0;
+        for (Rectangle r : obstacles) {
+            if (r.isEmpty())
+                continue;
+            xs[i] = r.x;
+            ys[i] = r.y;
+            widths[i] = r.width;
+            heights[i++] = r.height;
+        }
+    }
+
+    /**
+     * Takes obstacles that are already packed, such as those of a {@link MapFile}. The arrays are kept, not copied,
+     * and must not be changed afterwards.
+     *
+     * @throws IllegalArgumentException if the arrays have different lengths or hold an empty obstacle
+     */
+    RectangleBatch(int[] xs, int[] ys, int[] widths, int[] heights)
+    {
+        if (ys.length != xs.length || widths.length != xs.length || heights.length != xs.length)
+            throw new IllegalArgumentException("the arrays have different lengths");
+        for (int i = 0; i < xs.length; i++)
+            if (widths[i] <= 0 || heights[i] <= 0)
+                throw new IllegalArgumentException("obstacle " + i + " is empty");
+        this.xs = xs;
+        this.ys = ys;
+        this.widths = widths;
+        this.heights = heights;
+    }
+
+    @Override
+    public boolean contains(int x, int y)
+    {
+        for (int i = 0; i < xs.length; i++)
+            if (contains(i, x, y))
+                return true;
+        return false;
+    }
+
+    @Override
+    public int countIntersections(int x1, int y1, int x2, int y2)
+    {
+        return count(0, xs.length, x1, y1, x2, y2, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean intersects(int x1, int y1, int x2, int y2)
+    {
+        return count(0, xs.length, x1, y1, x2, y2, 1) > 0;
+    }
+
+    /**
+     * Counts the obstacles <code>from .. to - 1</code> touched by a segment, stopping at <code>limit</code>.
+     */
+    int count(int from, int to, int x1, int y1, int x2, int y2, int limit)
+    {
+        long minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+        long minY = Math.min(y1, y2), maxY = Math.max(y1, y2);
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int x = xs[i], y = ys[i];
+            if (maxX < x || minX > (long) x + widths[i] || maxY < y || minY > (long) y + heights[i])
+                continue;
+            if (intersectsLine(x, y, widths[i], heights[i], x1, y1, x2, y2) && ++count >= limit)
+                break;
+        }
+        return count;
+    }
+
+    /**
+     * Tells if obstacle <code>i</code> contains a point, like {@link Rectangle#contains(int, int)}.
+     */
+    boolean contains(int i, int x, int y)
+    {
+        // same overflow handling as Rectangle.inside: a far edge that wraps around means "up to infinity"
+        int w = widths[i], h = heights[i], x0 = xs[i], y0 = ys[i];
+        if (x < x0 || y < y0)
+            return false;
+        w += x0;
+        h += y0;
+        return (w < x0 || w > x) && (h < y0 || h > y);
+    }
+
+    /**
+     * Tells if obstacle <code>i</code> touches a segment, like {@link Rectangle#intersectsLine(double, double, double,
+     * double)}.
+     */
+    boolean intersects(int i, int x1, int y1, int x2, int y2)
+    {
+        return intersectsLine(xs[i], ys[i], widths[i], heights[i], x1, y1, x2, y2);
+    }
+
+    /**
+     * Tells if a segment touches a rectangle, with the clipping of {@link java.awt.geom.Rectangle2D#intersectsLine}
+     * step by step, so the result is the same in every case, including segments that graze a corner.
+     *
+     * @param x the x coordinate of the rectangle
+     * @param y the y coordinate of the rectangle
+     * @param width the width of the rectangle
+     * @param height the height of the rectangle
+     * @return true if the segment between (x1, y1) and (x2, y2) touches the closed bounds of the rectangle
+     */
+    public static boolean intersectsLine(int x, int y, int width, int height, double x1, double y1, double x2,
+                                         double y2)
+    {
+        int out1, out2;
+        if ((out2 = outcode(x, y, width, height, x2, y2)) == 0)
+            return true;
+        while ((out1 = outcode(x, y, width, height, x1, y1)) != 0) {
+            if ((out1 & out2) != 0)
+                return false;
+            if ((out1 & (OUT_LEFT | OUT_RIGHT)) != 0) {
+                double edge = x;
+                if ((out1 & OUT_RIGHT) != 0)
+                    edge += width;
+                y1 = y1 + (edge - x1) * (y2 - y1) / (x2 - x1);
+                x1 = edge;
+            } else {
+                double edge = y;
+                if ((out1 & OUT_BOTTOM) != 0)
+                    edge += height;
+                x1 = x1 + (edge - y1) * (x2 - x1) / (y2 - y1);
+                y1 = edge;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link Rectangle#outcode(double, double)}.
+     */
+    private static int outcode(int x, int y, int width, int height, double px, double py)
+    {
+        int out = 0;
+        if (width <= 0)
+            out |= OUT_LEFT | OUT_RIGHT;
+        else if (px < x)
+            out |= OUT_LEFT;
+        else if (px > x + (double) width)
+            out |= OUT_RIGHT;
+        if (height <= 0)
+            out |= OUT_TOP | OUT_BOTTOM;
+        else if (py < y)
+            out |= OUT_TOP;
+        else if (py > y + (double) height)
+            out |= OUT_BOTTOM;
+        return out;
+    }
+
+    public int size() {
+        return xs.length;
+    }
+}
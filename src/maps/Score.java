@@ -0,0 +1,56 @@
+package maps;
+
+/**
+ * Evaluation of a single path: its length, the number of obstacle intersections and the combined fitness.
+ * Instances are reused from one generation to the next so that scoring a population does not allocate.
+ */
+public class Score
+{
+    private double length;
+    private int intersections;
+    private double fitness;
+
+    /**
+     * Creates an array of empty scores, one for each individual of a population.
+     *
+     * @param size the size of the population
+     * @return an array with <code>size</code> scores
+     */
+    public static Score[] newArray(int size)
+    {
+        Score[] scores = new Score[size];
+        for (int i = 0; i < size; i++)
+            scores[i] = new Score();
+        return scores;
+    }
+
+    /**
+     * Updates this score with the length and intersections of a path, recomputing the fitness.
+     *
+     * @param length the total length of the path
+     * @param intersections the number of segment/obstacle intersections of the path
+     */
+    public void set(double length, int intersections)
+    {
+        this.length = length;
+        this.intersections = intersections;
+        this.fitness = length + intersections * PathDrawingSample.INTERSECTION_PENALTY;
+    }
+
+    public double getLength() {
+        return length;
+    }
+
+    public int getIntersections() {
+        return intersections;
+    }
+
+    public double getFitness() {
+        return fitness;
+    }
+
+    @Override
+    public String toString() {
+        return "Score{length=" + length + ", intersections=" + intersections + ", fitness=" + fitness + "}";
+    }
+}
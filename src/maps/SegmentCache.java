@@ -0,0 +1,154 @@
+package maps;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded memo of the number of obstacles touched by each segment, placed in front of another
+ * {@link CollisionChecker}. Children are spliced from their parents, so most of their segments were already scored in
+ * an earlier generation; with this cache only the segments created by crossover and mutation pay the geometric test.
+ * <p>
+ * Each entry is a single <code>long</code> holding the endpoints of a segment (12 bits per coordinate), its obstacle
+ * count (15 bits) and a valid bit, so it can be read and written atomically by the threads of a
+ * {@link FitnessEvaluator} without locks. The segment length is not cached, being a single square root. The table is
+ * two-way set associative; when both ways of a set are taken, the way to evict is picked from a bit of the new key,
+ * which behaves as random replacement. Segments with a coordinate outside <code>0 .. 4095</code> bypass the cache.
+ * Results never change: a hit returns exactly what the underlying checker returned.
+ */
+public class SegmentCache implements CollisionChecker
+{
+    private static final int COORDINATE_BITS = 12;
+    private static final int MAX_COORDINATE = (1 << COORDINATE_BITS) - 1;
+    private static final int COUNT_BITS = 15;
+    private static final int MAX_COUNT = (1 << COUNT_BITS) - 1;
+    private static final long KEY_MASK = (1L << (4 * COORDINATE_BITS)) - 1;
+    private static final long VALID = 1L << 63;
+
+    private final CollisionChecker grid;
+    private final AtomicLongArray entries;
+    private final int setMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache in front of a collision checker.
+     *
+     * @param grid the checker that answers the misses
+     * @param capacity the maximum number of segments to remember, rounded up to a power of two (at least 2)
+     */
+    public SegmentCache(CollisionChecker grid, int capacity)
+    {
+        if (capacity < 2 || capacity > (1 << 30))
+            throw new IllegalArgumentException("capacity must be in [2, 2^30]: " + capacity);
+
+        this.grid = grid;
+        int sets = Integer.highestOneBit(capacity - 1);
+        this.entries = new AtomicLongArray(2 * sets);
+        this.setMask = sets - 1;
+    }
+
+    @Override
+    public boolean contains(int x, int y)
+    {
+        return grid.contains(x, y);
+    }
+
+    @Override
+    public boolean intersects(int x1, int y1, int x2, int y2)
+    {
+        return countIntersections(x1, y1, x2, y2) > 0;
+    }
+
+    @Override
+    public int countIntersections(int x1, int y1, int x2, int y2)
+    {
+        if (((x1 | y1 | x2 | y2) & ~MAX_COORDINATE) != 0)
+            return grid.countIntersections(x1, y1, x2, y2);
+
+        long key = ((long) x1 << 36) | ((long) y1 << 24) | ((long) x2 << 12) | y2;
+        int set = 2 * (hash(key) & setMask);
+
+        long first = entries.get(set), second = entries.get(set + 1);
+        if ((first & (VALID | KEY_MASK)) == (VALID | key)) {
+            hits.increment();
+            return count(first);
+        }
+        if ((second & (VALID | KEY_MASK)) == (VALID | key)) {
+            hits.increment();
+            return count(second);
+        }
+
+        misses.increment();
+        int count = grid.countIntersections(x1, y1, x2, y2);
+        if (count > MAX_COUNT)
+            return count;
+
+        long entry = VALID | ((long) count << (4 * COORDINATE_BITS)) | key;
+        int way;
+        if ((first & VALID) == 0)
+            way = 0;
+        else if ((second & VALID) == 0)
+            way = 1;
+        else {
+            way = (int) (key >>> 7) & 1;
+            evictions.increment();
+        }
+        entries.set(set + way, entry);
+        return count;
+    }
+
+    private static int count(long entry)
+    {
+        return (int) (entry >>> (4 * COORDINATE_BITS)) & MAX_COUNT;
+    }
+
+    private static int hash(long key)
+    {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    /**
+     * Forgets every cached segment, for instance when the obstacles change. The statistics are kept.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < entries.length(); i++)
+            entries.set(i, 0);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups answered by the cache.
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    public double getHitRate()
+    {
+        long hits = getHits(), total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public int getCapacity() {
+        return entries.length();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SegmentCache{capacity=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f}",
+                getCapacity(), getHits(), getMisses(), getEvictions(), getHitRate());
+    }
+}
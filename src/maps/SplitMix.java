@@ -0,0 +1,46 @@
+package maps;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * SplitMix64 generator, the algorithm behind {@link java.util.SplittableRandom}, with a state that can be read and
+ * restored. The genetic algorithm of {@link PathDrawingSample} draws from it so that a {@link Checkpoint} can save the
+ * position of the random stream and a resumed run makes exactly the choices that the interrupted one would have made.
+ * Like <code>SplittableRandom</code>, it is not thread-safe.
+ */
+public class SplitMix implements RandomGenerator
+{
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    /**
+     * Creates a generator.
+     *
+     * @param seed the initial state
+     */
+    public SplitMix(long seed)
+    {
+        this.state = seed;
+    }
+
+    @Override
+    public long nextLong()
+    {
+        long z = state += GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the current state, from which {@link #setState(long)} continues the same stream.
+     */
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+}
@@ -0,0 +1,158 @@
+package maps;
+
+import java.util.random.RandomGenerator;
+
+import interf.IUIConfiguration;
+
+/**
+ * Elitist steady-state replacement for the genetic algorithm. Each step breeds only a few children from the current
+ * population, evaluates them and lets each one replace the worst member of the population if it is better, so the
+ * best individual is never lost and a step costs a few fitness evaluations instead of a whole population. Children
+ * that duplicate a member of the population are rejected.
+ * <p>
+ * The best individuals ever seen are also kept in an elite archive, which survives restarts of the population.
+ */
+public class SteadyState
+{
+    private final IUIConfiguration conf;
+    private final CollisionChecker grid;
+    private final FitnessEvaluator evaluator;
+    private final double mutationRate;
+    private final RandomGenerator rand;
+
+    private final Population children, archive;
+    private final int[] selected;
+    private int archived;
+
+    /**
+     * Creates the steady-state stage of a run.
+     *
+     * @param conf the map
+     * @param evaluator the evaluator that scores the children
+     * @param children the number of children bred in each step (at least 1)
+     * @param archiveSize the number of individuals of the elite archive (at least 1)
+     * @param capacity the maximum number of points of an individual
+     * @param mutationRate the probability that a child is mutated
+     * @param rand the source of randomness
+     */
+    public SteadyState(IUIConfiguration conf, FitnessEvaluator evaluator, int children, int archiveSize, int capacity,
+                       double mutationRate, RandomGenerator rand)
+    {
+        if (children < 1)
+            throw new IllegalArgumentException("children must be at least 1: " + children);
+
+        this.conf = conf;
+        this.grid = OccupancyGrid.of(conf);
+        this.evaluator = evaluator;
+        this.mutationRate = mutationRate;
+        this.rand = rand;
+        this.children = new Population(children, capacity);
+        this.archive = new Population(archiveSize, capacity);
+        this.selected = new int[children];
+    }
+
+    /**
+     * Breeds and evaluates the children of one step and inserts them into a scored population.
+     *
+     * @param population the scored population, which is changed in place
+     * @return the number of children that entered the population
+     */
+    public int step(Population population)
+    {
+        PathDrawingSample.select(population, selected, rand);
+        PathDrawingSample.crossover(population, selected, children, rand);
+        PathDrawingSample.mutate(children, mutationRate, conf, grid, rand);
+        evaluator.evaluate(children);
+
+        int accepted = 0;
+        for (int k = 0; k < children.size(); k++) {
+            double fitness = children.getFitness(k);
+            int worst = worst(population, population.size());
+            if (fitness < population.getFitness(worst) && !contains(population, fitness)) {
+                population.copy(worst, children, k);
+                accepted++;
+            }
+            archive(children, k);
+        }
+        return accepted;
+    }
+
+    /**
+     * Offers an individual to the elite archive, where it replaces the worst archived one if it is better.
+     */
+    private void archive(Population source, int i)
+    {
+        if (contains(archive, source.getFitness(i)))
+            return;
+        if (archived < archive.size()) {
+            archive.copy(archived++, source, i);
+            return;
+        }
+        int worst = worst(archive, archived);
+        if (source.getFitness(i) < archive.getFitness(worst))
+            archive.copy(worst, source, i);
+    }
+
+    /**
+     * Puts the elite archive back into the population, in place of its worst members, for instance after a restart.
+     *
+     * @param population the scored population, which is changed in place
+     */
+    public void restoreArchive(Population population)
+    {
+        for (int k = 0; k < archived; k++) {
+            int worst = worst(population, population.size());
+            if (archive.getFitness(k) < population.getFitness(worst) && !contains(population, archive.getFitness(k)))
+                population.copy(worst, archive, k);
+        }
+    }
+
+    /**
+     * Tells if some individual has exactly the given fitness, which in practice means that it is the same path.
+     * Rejecting such duplicates keeps the population from filling up with copies of the best individual.
+     */
+    private static boolean contains(Population population, double fitness)
+    {
+        for (int i = 0; i < population.size(); i++)
+            if (population.getFitness(i) == fitness)
+                return true;
+        return false;
+    }
+
+    private static int worst(Population population, int size)
+    {
+        int worst = 0;
+        for (int i = 1; i < size; i++)
+            if (population.getFitness(i) > population.getFitness(worst))
+                worst = i;
+        return worst;
+    }
+
+    /**
+     * Returns the elite archive; only its first {@link #getArchived()} individuals are filled.
+     */
+    public Population getArchive() {
+        return archive;
+    }
+
+    /**
+     * Replaces the elite archive with the first <code>count</code> individuals of another population, for instance
+     * the archive saved in a {@link Checkpoint}.
+     */
+    public void setArchive(Population source, int count)
+    {
+        if (count < 0 || count > archive.size())
+            throw new IllegalArgumentException("count must be in [0, " + archive.size() + "]: " + count);
+        for (int k = 0; k < count; k++)
+            archive.copy(k, source, k);
+        archived = count;
+    }
+
+    public int getArchived() {
+        return archived;
+    }
+
+    public int getChildren() {
+        return children.size();
+    }
+}
@@ -0,0 +1,268 @@
+package maps;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import interf.IUIConfiguration;
+
+/**
+ * Headless hyperparameter sweep of the genetic algorithm over the maps of {@link Maps}. Every combination of map,
+ * population size, number of generations, mutation rate and seed is run once, on a fixed pool of worker threads, and
+ * one CSV row per run is written and flushed as soon as the run ends, so a long sweep can be followed (or resumed by
+ * hand) while it goes on. Rows come in the order in which the runs end; the <code>run</code> column gives their order
+ * in the grid.
+ * <p>
+ * Each run is the plain generational loop of {@link PathDrawingSample} (selection, crossover and mutation only: no
+ * visibility seeding, restarts, local search or checkpoints) on a single thread, with a {@link SplittableRandom}
+ * seeded from the <code>seed</code> column. Running the sweep again with the same values reproduces a row, but a row
+ * is not the run that {@link PathDrawingSample#main(String[])} makes with the same seed, since main draws from
+ * {@link SplitMix} and seeds its population. The obstacles of each map are indexed once and shared by all its runs.
+ * The arguments are <code>name=value</code> pairs, lists being separated by commas and integer ranges written
+ * <code>a-b</code>:
+ * <pre>
+ * maps=0-10 population=50,100,200 generations=500,2000 mutation=0.02,0.05,0.1 seeds=1-5 workers=4 out=sweep.csv
+ * </pre>
+ * Omitted arguments keep the values of <code>PathDrawingSample</code>, with seed 42, one worker per core and the
+ * output going to <code>sweep.csv</code>.
+ */
+public class Sweep
+{
+    private static final String HEADER = "run,map,population,generations,mutation,seed,"
+            + "first_valid_generation,first_valid_ms,fitness,intersections,evaluations,elapsed_ms,evaluations_per_s";
+
+    private final List<Integer> maps, populationSizes, generations;
+    private final List<Double> mutationRates;
+    private final List<Long> seeds;
+    private final int workers;
+
+    private final List<IUIConfiguration> confs = new ArrayList<>();
+    private final List<ObstacleGrid> obstacleGrids = new ArrayList<>();
+    private final List<OccupancyGrid> occupancyGrids = new ArrayList<>();
+
+    /**
+     * Creates a sweep over the product of the given values.
+     *
+     * @param maps the numbers of the maps, as accepted by {@link Maps#getMap(int)}
+     * @param populationSizes the population sizes (at least 2)
+     * @param generations the numbers of generations of a run (at least 1)
+     * @param mutationRates the mutation rates
+     * @param seeds the seeds of the runs
+     * @param workers the number of runs done at the same time (at least 1)
+     * @throws Exception if some map does not exist
+     */
+    public Sweep(List<Integer> maps, List<Integer> populationSizes, List<Integer> generations,
+                 List<Double> mutationRates, List<Long> seeds, int workers) throws Exception
+    {
+        if (workers < 1)
+            throw new IllegalArgumentException("workers must be at least 1: " + workers);
+        for (int size : populationSizes)
+            if (size < 2)
+                throw new IllegalArgumentException("population sizes must be at least 2: " + size);
+        for (int count : generations)
+            if (count < 1)
+                throw new IllegalArgumentException("generations must be at least 1: " + count);
+
+        this.maps = maps;
+        this.populationSizes = populationSizes;
+        this.generations = generations;
+        this.mutationRates = mutationRates;
+        this.seeds = seeds;
+        this.workers = workers;
+
+        for (int map : maps) {
+            IUIConfiguration conf = Maps.getMap(map);
+            confs.add(conf);
+            ObstacleGrid index = new ObstacleGrid(conf.getObstacles(), conf.getWidth(), conf.getHeight());
+            obstacleGrids.add(index);
+            occupancyGrids.add(new OccupancyGrid(conf, index, OccupancyGrid.Mode.EXACT));
+        }
+    }
+
+    /**
+     * Returns the number of runs of the sweep.
+     */
+    public int size() {
+        return maps.size() * populationSizes.size() * generations.size() * mutationRates.size() * seeds.size();
+    }
+
+    /**
+     * Runs the whole sweep and writes one row per run to <code>out</code>, after a header.
+     *
+     * @param out the destination of the rows
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the runs
+     */
+    public void run(PrintWriter out) throws InterruptedException
+    {
+        out.println(HEADER);
+        out.flush();
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>(size());
+            int run = 0;
+            for (int m = 0; m < maps.size(); m++)
+                for (int populationSize : populationSizes)
+                    for (int count : generations)
+                        for (double mutationRate : mutationRates)
+                            for (long seed : seeds) {
+                                int id = run++, map = m;
+                                futures.add(executor.submit(() -> {
+                                    String row = run(id, map, populationSize, count, mutationRate, seed);
+                                    synchronized (out) {
+                                        out.println(row);
+                                        out.flush();
+                                    }
+                                }));
+                            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("run failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the genetic algorithm once and returns its CSV row.
+     */
+    private String run(int id, int map, int populationSize, int generations, double mutationRate, long seed)
+    {
+        IUIConfiguration conf = confs.get(map);
+        OccupancyGrid occupancy = occupancyGrids.get(map);
+        SplittableRandom rand = new SplittableRandom(seed);
+
+        Population population = new Population(populationSize, PathDrawingSample.MAX_POINTS);
+        Population offspring = new Population(populationSize, PathDrawingSample.MAX_POINTS);
+        int[] selected = new int[populationSize];
+        double bestFitness = Double.MAX_VALUE;
+        int bestIntersections = Integer.MAX_VALUE;
+        int firstValid = -1;
+        long firstValidTime = -1;
+
+        long start = System.nanoTime();
+        try (FitnessEvaluator evaluator = new FitnessEvaluator(obstacleGrids.get(map), 1)) {
+            PathDrawingSample.initializePopulation(population, conf, occupancy, rand);
+            evaluator.evaluate(population);
+
+            for (int generation = 0; generation < generations; generation++) {
+                PathDrawingSample.select(population, selected, rand);
+                PathDrawingSample.crossover(population, selected, offspring, rand);
+                PathDrawingSample.mutate(offspring, mutationRate, conf, occupancy, rand);
+                evaluator.evaluate(offspring);
+
+                Population swap = population;
+                population = offspring;
+                offspring = swap;
+
+                for (int i = 0; i < population.size(); i++) {
+                    int intersections = population.getIntersections(i);
+                    if (intersections < bestIntersections
+                            || (intersections == bestIntersections && population.getFitness(i) < bestFitness)) {
+                        bestFitness = population.getFitness(i);
+                        bestIntersections = intersections;
+                    }
+                }
+                if (bestIntersections == 0 && firstValid < 0) {
+                    firstValid = generation;
+                    firstValidTime = System.nanoTime() - start;
+                }
+            }
+
+            long elapsed = System.nanoTime() - start;
+            long evaluations = evaluator.getEvaluations();
+            return String.format(Locale.ROOT, "%d,%d,%d,%d,%s,%d,%d,%.3f,%.3f,%d,%d,%.3f,%.0f",
+                    id, maps.get(map), populationSize, generations, mutationRate, seed, firstValid,
+                    firstValidTime < 0 ? -1.0 : firstValidTime / 1e6, bestFitness, bestIntersections, evaluations,
+                    elapsed / 1e6, evaluations / (elapsed / 1e9));
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        List<Integer> maps = integers("0-10");
+        List<Integer> populationSizes = integers("100");
+        List<Integer> generations = integers("2000");
+        List<Double> mutationRates = List.of(0.05);
+        List<Long> seeds = List.of(42L);
+        int workers = Runtime.getRuntime().availableProcessors();
+        String out = "sweep.csv";
+
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0)
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            String name = arg.substring(0, equals), value = arg.substring(equals + 1);
+            switch (name) {
+                case "maps": maps = integers(value); break;
+                case "population": populationSizes = integers(value); break;
+                case "generations": generations = integers(value); break;
+                case "mutation": mutationRates = doubles(value); break;
+                case "seeds": seeds = longs(value); break;
+                case "workers": workers = Integer.parseInt(value); break;
+                case "out": out = value; break;
+                default: throw new IllegalArgumentException("unknown argument: " + name);
+            }
+        }
+
+        Sweep sweep = new Sweep(maps, populationSizes, generations, mutationRates, seeds, workers);
+        System.out.println(sweep.size() + " execuções em " + workers + " threads -> " + out);
+        long start = System.nanoTime();
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(out)))) {
+            sweep.run(writer);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot write " + out, e);
+        }
+        System.out.printf("Terminado em %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Parses a comma separated list of integers and integer ranges <code>a-b</code>.
+     */
+    static List<Integer> integers(String value)
+    {
+        List<Integer> values = new ArrayList<>();
+        for (long v : longs(value))
+            values.add(Math.toIntExact(v));
+        return values;
+    }
+
+    private static List<Long> longs(String value)
+    {
+        List<Long> values = new ArrayList<>();
+        for (String item : value.split(",")) {
+            int dash = item.indexOf('-', 1);
+            if (dash < 0) {
+                values.add(Long.parseLong(item.trim()));
+            } else {
+                long from = Long.parseLong(item.substring(0, dash).trim());
+                long to = Long.parseLong(item.substring(dash + 1).trim());
+                for (long v = from; v <= to; v++)
+                    values.add(v);
+            }
+        }
+        return values;
+    }
+
+    private static List<Double> doubles(String value)
+    {
+        List<Double> values = new ArrayList<>();
+        for (String item : value.split(","))
+            values.add(Double.parseDouble(item.trim()));
+        return values;
+    }
+}
@@ -0,0 +1,157 @@
+package maps;
+
+/**
+ * Stopping criteria of the genetic algorithm and the reason why a run stopped. Every criterion except the number of
+ * generations is disabled by default.
+ */
+public class Termination
+{
+    public enum Reason
+    {
+        /** the maximum number of generations was reached */
+        GENERATIONS,
+        /** a path without intersections was found and the run stops at the first one */
+        SOLVED,
+        /** the best fitness reached the target */
+        TARGET_FITNESS,
+        /** the best path has no intersections and did not improve for the configured number of generations */
+        STAGNATION,
+        /** the wall-clock limit expired */
+        TIME_LIMIT
+    }
+
+    private int maxGenerations;
+    private boolean stopAtFirstSolution;
+    private double targetFitness = Double.NEGATIVE_INFINITY;
+    private int stagnationLimit = Integer.MAX_VALUE;
+    private long timeLimitNanos = Long.MAX_VALUE;
+
+    private long startTime;
+    private double bestFitness;
+    private int lastImprovement;
+
+    /**
+     * Creates criteria that only stop after a number of generations.
+     *
+     * @param maxGenerations the maximum number of generations
+     */
+    public Termination(int maxGenerations)
+    {
+        this.maxGenerations = maxGenerations;
+    }
+
+    /**
+     * Starts the clock and forgets the best fitness of a previous run.
+     */
+    public void start()
+    {
+        startTime = System.nanoTime();
+        bestFitness = Double.MAX_VALUE;
+        lastImprovement = 0;
+    }
+
+    /**
+     * Starts the clock of a run resumed from a {@link Checkpoint}, keeping the progress of the interrupted run.
+     *
+     * @param bestFitness the best fitness seen by the interrupted run
+     * @param lastImprovement the generation in which it last improved
+     */
+    public void resume(double bestFitness, int lastImprovement)
+    {
+        startTime = System.nanoTime();
+        this.bestFitness = bestFitness;
+        this.lastImprovement = lastImprovement;
+    }
+
+    /**
+     * Records the state of the run after a generation and tells if it must stop.
+     *
+     * @param generation the generation that has just finished, starting at 0
+     * @param bestFitness the best fitness found so far
+     * @param bestIntersections the number of intersections of the best path found so far
+     * @return the reason to stop, or null if the run goes on
+     */
+    public Reason check(int generation, double bestFitness, int bestIntersections)
+    {
+        if (bestFitness < this.bestFitness) {
+            this.bestFitness = bestFitness;
+            lastImprovement = generation;
+        }
+
+        if (stopAtFirstSolution && bestIntersections == 0)
+            return Reason.SOLVED;
+        if (bestFitness <= targetFitness)
+            return Reason.TARGET_FITNESS;
+        if (bestIntersections == 0 && generation - lastImprovement >= stagnationLimit)
+            return Reason.STAGNATION;
+        if (System.nanoTime() - startTime >= timeLimitNanos)
+            return Reason.TIME_LIMIT;
+        if (generation + 1 >= maxGenerations)
+            return Reason.GENERATIONS;
+        return null;
+    }
+
+    /**
+     * Returns the number of generations since the best fitness last improved.
+     *
+     * @param generation the current generation
+     */
+    public int getStagnation(int generation) {
+        return generation - lastImprovement;
+    }
+
+    public double getBestFitness() {
+        return bestFitness;
+    }
+
+    public int getLastImprovement() {
+        return lastImprovement;
+    }
+
+    public int getMaxGenerations() {
+        return maxGenerations;
+    }
+
+    public void setMaxGenerations(int maxGenerations) {
+        this.maxGenerations = maxGenerations;
+    }
+
+    public boolean isStopAtFirstSolution() {
+        return stopAtFirstSolution;
+    }
+
+    /**
+     * Stops the run as soon as a path without intersections is found, instead of going on to shorten it.
+     */
+    public void setStopAtFirstSolution(boolean stopAtFirstSolution) {
+        this.stopAtFirstSolution = stopAtFirstSolution;
+    }
+
+    public double getTargetFitness() {
+        return targetFitness;
+    }
+
+    public void setTargetFitness(double targetFitness) {
+        this.targetFitness = targetFitness;
+    }
+
+    public int getStagnationLimit() {
+        return stagnationLimit;
+    }
+
+    /**
+     * Stops the run when the best fitness has not improved for this many generations. The limit only applies once a
+     * path without intersections has been found; before that, stagnation is left to the restarts of the caller.
+     */
+    public void setStagnationLimit(int stagnationLimit) {
+        this.stagnationLimit = stagnationLimit;
+    }
+
+    public long getTimeLimitNanos() {
+        return timeLimitNanos;
+    }
+
+    public void setTimeLimitNanos(long timeLimitNanos) {
+        this.timeLimitNanos = timeLimitNanos;
+    }
+}
@@ -0,0 +1,212 @@
+package maps;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import interf.IUIConfiguration;
+
+/**
+ * Visibility graph over the corners of the obstacles of a map, searched with A* to find the shortest path that does
+ * not touch any obstacle.
+ * <p>
+ * The nodes are the start, the end and the corners of every obstacle pushed <code>margin</code> pixels away from it,
+ * so that a path that turns around a corner does not graze the obstacle. Corners that fall outside the map or inside
+ * another obstacle are dropped. Edges are not built in advance: the visibility of the neighbours of a node is only
+ * tested when A* expands it.
+ */
+public class VisibilityGraph
+{
+    /**
+     * Default distance between an obstacle and the nodes placed at its corners, in pixels.
+     */
+    public static final int DEFAULT_MARGIN = 2;
+
+    private final CollisionChecker grid;
+    private final int[] xs, ys;
+    private final int start, end;
+    private int expanded;
+
+    /**
+     * Builds the nodes of the visibility graph of a map, with the default margin.
+     *
+     * @param conf the map, including the start and the end of the path
+     * @param grid the obstacles of the map
+     */
+    public VisibilityGraph(IUIConfiguration conf, CollisionChecker grid)
+    {
+        this(conf, grid, DEFAULT_MARGIN);
+    }
+
+    /**
+     * Builds the nodes of the visibility graph of a map.
+     *
+     * @param conf the map, including the start and the end of the path
+     * @param grid the obstacles of the map
+     * @param margin the distance between an obstacle and the nodes placed at its corners, in pixels (at least 1)
+     */
+    public VisibilityGraph(IUIConfiguration conf, CollisionChecker grid, int margin)
+    {
+        if (margin < 1)
+            throw new IllegalArgumentException("margin must be positive: " + margin);
+
+        this.grid = grid;
+        int[] xs = new int[2 + 4 * conf.getObstacles().size()];
+        int[] ys = new int[xs.length];
+        int n = 0;
+
+        xs[n] = conf.getStart().getX();
+        ys[n++] = conf.getStart().getY();
+        xs[n] = conf.getEnd().getX();
+        ys[n++] = conf.getEnd().getY();
+        n = corners(conf, grid, margin, xs, ys, n);
+
+        this.xs = Arrays.copyOf(xs, n);
+        this.ys = Arrays.copyOf(ys, n);
+        this.start = 0;
+        this.end = 1;
+    }
+
+    /**
+     * Appends the corners of the obstacles of a map, pushed <code>margin</code> pixels away from them, to arrays of
+     * nodes, dropping the ones that fall outside the map, inside an obstacle or on a node already added.
+     *
+     * @param xs the x coordinates of the nodes, with room for 4 corners per obstacle after the first n
+     * @param ys the y coordinates of the nodes
+     * @param n the number of nodes already in the arrays
+     * @return the number of nodes in the arrays
+     */
+    static int corners(IUIConfiguration conf, CollisionChecker grid, int margin, int[] xs, int[] ys, int n)
+    {
+        Set<Long> seen = new HashSet<>();
+        for (int k = 0; k < n; k++)
+            seen.add(((long) xs[k] << 32) | (ys[k] & 0xffffffffL));
+
+        for (Rectangle r : conf.getObstacles()) {
+            if (r.isEmpty())
+                continue;
+            int left = r.x - margin, right = r.x + r.width + margin;
+            int top = r.y - margin, bottom = r.y + r.height + margin;
+            int[][] corners = { { left, top }, { right, top }, { left, bottom }, { right, bottom } };
+            for (int[] corner : corners) {
+                int x = corner[0], y = corner[1];
+                if (x < 0 || y < 0 || x >= conf.getWidth() || y >= conf.getHeight() || grid.contains(x, y))
+                    continue;
+                if (!seen.add(((long) x << 32) | (y & 0xffffffffL)))
+                    continue;
+                xs[n] = x;
+                ys[n++] = y;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Finds the shortest path without intersections between the start and the end of a map.
+     *
+     * @param conf the map, including the start and the end of the path
+     * @param grid the obstacles of the map
+     * @return the points of the path, start and end included, or null if the end cannot be reached
+     */
+    public static List<Point> shortestPath(IUIConfiguration conf, CollisionChecker grid)
+    {
+        return new VisibilityGraph(conf, grid).shortestPath();
+    }
+
+    /**
+     * Runs A* from the start to the end, with the straight-line distance to the end as heuristic.
+     *
+     * @return the points of the path, start and end included, or null if the end cannot be reached
+     */
+    public List<Point> shortestPath()
+    {
+        int n = xs.length;
+        double[] cost = new double[n];
+        int[] parent = new int[n];
+        boolean[] closed = new boolean[n];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+
+        // entries are not updated in place: a node can be queued several times and the stale entries are skipped
+        PriorityQueue<Entry> open = new PriorityQueue<>();
+        cost[start] = 0;
+        open.add(new Entry(start, distance(start, end)));
+        expanded = 0;
+
+        while (!open.isEmpty()) {
+            int node = open.poll().node;
+            if (closed[node])
+                continue;
+            closed[node] = true;
+            expanded++;
+
+            if (node == end)
+                return path(parent);
+
+            for (int next = 0; next < n; next++) {
+                if (closed[next])
+                    continue;
+                double candidate = cost[node] + distance(node, next);
+                if (candidate >= cost[next] || grid.intersects(xs[node], ys[node], xs[next], ys[next]))
+                    continue;
+                cost[next] = candidate;
+                parent[next] = node;
+                open.add(new Entry(next, candidate + distance(next, end)));
+            }
+        }
+        return null;
+    }
+
+    private List<Point> path(int[] parent)
+    {
+        List<Point> path = new ArrayList<>();
+        for (int node = end; node >= 0; node = parent[node])
+            path.add(new Point(xs[node], ys[node]));
+        Collections.reverse(path);
+        return path;
+    }
+
+    private double distance(int a, int b)
+    {
+        double dx = xs[a] - xs[b], dy = ys[a] - ys[b];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns the number of nodes of the graph, start and end included.
+     */
+    public int size() {
+        return xs.length;
+    }
+
+    /**
+     * Returns the number of nodes expanded by the last search.
+     */
+    public int getExpanded() {
+        return expanded;
+    }
+
+    /**
+     * Node of the open list of A*, ordered by its estimated total cost; also used by {@link PreparedMap}.
+     */
+    static class Entry implements Comparable<Entry>
+    {
+        final int node;
+        private final double estimate;
+
+        Entry(int node, double estimate) {
+            this.node = node;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Double.compare(estimate, other.estimate);
+        }
+    }
+}
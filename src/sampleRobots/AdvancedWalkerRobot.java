@@ -2,7 +2,13 @@ package sampleRobots;
 
 import impl.Point;
 import impl.UIConfiguration;
+import interf.IPath;
 import interf.IPoint;
+import interf.IUIConfiguration;
+import maps.ObstacleGrid;
+import maps.PathPlanner;
+import maps.PathRepair;
+import maps.PlanCache;
 import robocode.Robot;
 import robocode.*;
 
@@ -11,8 +17,15 @@ import java.awt.event.MouseEvent;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import utils.Utils;
 
@@ -29,6 +42,32 @@ public class AdvancedWalkerRobot extends AdvancedRobot
     //variável que contém o ponto atual para o qual o robot se está a dirigir
     private int currentPoint = -1;
 
+    //tempo máximo gasto a planear um caminho, para não ultrapassar o tempo de CPU de cada turno
+    private static final long PLANNING_BUDGET_MILLIS = 5;
+
+    //planear numa thread à parte, para que o robot continue a andar enquanto o caminho é calculado
+    private static final boolean BACKGROUND_PLANNING = true;
+    //tempo máximo gasto a planear um caminho na thread à parte (não bloqueia o robot)
+    private static final long BACKGROUND_PLANNING_BUDGET_MILLIS = 250;
+
+    //número de caminhos guardados na cache, e tamanho (em pixels) das células a que a partida e o destino são arredondados
+    private static final int PLAN_CACHE_SIZE = 64;
+    private static final int PLAN_CACHE_CELL_SIZE = 8;
+    //caminhos já calculados, reutilizados quando se pede outra vez um caminho perto dos mesmos pontos e os obstáculos não mudaram
+    private final PlanCache planCache = new PlanCache(PLAN_CACHE_SIZE, PLAN_CACHE_CELL_SIZE);
+
+    private ExecutorService planningExecutor;
+    private Future<?> pendingPlan;
+    //número do último pedido de planeamento; os caminhos de pedidos anteriores são descartados
+    private final AtomicLong lastRequest = new AtomicLong();
+    //último caminho calculado que ainda não foi recolhido pelo ciclo do run() (o mais recente substitui o anterior)
+    private final AtomicReference<Plan> nextPlan = new AtomicReference<>();
+    //destino do último pedido de planeamento, para não pedir outra vez o mesmo caminho enquanto este não chega
+    private IPoint pendingEnd;
+    //inimigos que se mexeram depois do último pedido, e que o caminho que vai chegar ainda não evita
+    private final Set<String> movedSinceRequest = new HashSet<>();
+    private int skippedTurns;
+
     @Override
     public void run()
     {
@@ -37,10 +76,30 @@ public class AdvancedWalkerRobot extends AdvancedRobot
         obstacles = new ArrayList<>();
         inimigos = new HashMap<>();
         conf = new UIConfiguration((int) getBattleFieldWidth(), (int) getBattleFieldHeight() , obstacles);
+        if (BACKGROUND_PLANNING)
+            planningExecutor = Executors.newSingleThreadExecutor();
 
         while(true){
             this.setTurnRadarRight(360);
 
+            //se há um caminho novo, começa a segui-lo
+            Plan plan = nextPlan.getAndSet(null);
+            if (plan != null && plan.request == lastRequest.get())
+            {
+                points = plan.points;
+                currentPoint = 0;
+                pendingEnd = null;
+
+                //os inimigos que se mexeram enquanto o caminho era calculado podem cortá-lo
+                List<Rectangle> moved = new ArrayList<>();
+                for (String name : movedSinceRequest)
+                    if (inimigos.containsKey(name))
+                        moved.add(inimigos.get(name));
+                movedSinceRequest.clear();
+                if (!moved.isEmpty())
+                    repairPath(moved);
+            }
+
             //se se está a dirigir para algum ponto
             if (currentPoint >= 0)
             {
@@ -64,26 +123,101 @@ public class AdvancedWalkerRobot extends AdvancedRobot
     public void onMouseClicked(MouseEvent e) {
         super.onMouseClicked(e);
 
-        Random rand = new Random();
-
         conf.setStart(new Point((int) this.getX(), (int) this.getY()));
         conf.setEnd(new Point(e.getX(), e.getY()));
 
-        /*
-         * TODO: Implementar a chamada ao algoritmo genético!
-         *
-         * */
-        System.out.println("Choo Choo!!!");
-        points = new ArrayList<>();
-        points.add(new Point((int) this.getX(), (int) this.getY()));
-        int size = rand.nextInt(5); //cria um caminho aleatório com no máximo 5 nós intermédios (excetuando início e fim)
-        for (int i=0;i<size;i++)
-            points.add(new Point(rand.nextInt(conf.getWidth()),rand.nextInt(conf.getHeight())));
-        points.add(new Point(e.getX(), e.getY())); 
+        //se já há um caminho para perto destes pontos que não toca nos obstáculos atuais, não é preciso planear
+        IUIConfiguration snapshot = PathPlanner.snapshot(conf);
+        IPath cached = planCache.get(snapshot, new ObstacleGrid(snapshot.getObstacles(), snapshot.getWidth(),
+                                                                snapshot.getHeight()));
+        if (cached != null)
+        {
+            //descarta o caminho de um pedido que ainda esteja a ser planeado
+            lastRequest.incrementAndGet();
+            pendingEnd = null;
+            movedSinceRequest.clear();
+            points = cached.getPoints();
+            currentPoint = 0;
+            System.out.println("Caminho reutilizado da cache");
+            return;
+        }
+
+        if (BACKGROUND_PLANNING)
+        {
+            requestPlan(snapshot);
+            return;
+        }
+
+        //devolve o melhor caminho encontrado pelo algoritmo genético dentro do tempo disponível
+        PathPlanner planner = new PathPlanner(snapshot);
+        IPath path = planner.plan(PLANNING_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+        if (planner.getIntersections() == 0)
+            planCache.put(snapshot, path);
+        points = path.getPoints();
+        System.out.println("Caminho com " + planner.getIntersections() + " interseções, em "
+                + planner.getGenerations() + " gerações");
 
         currentPoint = 0;
     }
 
+    /**
+     * Pede um caminho à thread de planeamento, com uma cópia do mapa atual. O pedido anterior, se ainda não terminou,
+     * é cancelado, e o seu caminho é descartado.
+     *
+     * @param snapshot cópia do mapa atual, tirada nesta thread
+     */
+    private void requestPlan(IUIConfiguration snapshot)
+    {
+        final long request = lastRequest.incrementAndGet();
+        final PathPlanner planner = new PathPlanner(snapshot);
+
+        if (pendingPlan != null)
+            pendingPlan.cancel(false);
+        pendingEnd = snapshot.getEnd();
+        movedSinceRequest.clear();
+
+        pendingPlan = planningExecutor.submit(() -> {
+            IPath path = planner.plan(BACKGROUND_PLANNING_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+            if (planner.getIntersections() == 0)
+                planCache.put(snapshot, path);
+            if (request == lastRequest.get())
+                nextPlan.set(new Plan(request, path.getPoints()));
+            System.out.println("Caminho com " + planner.getIntersections() + " interseções, em "
+                    + planner.getGenerations() + " gerações");
+        });
+    }
+
+    /**
+     * Indica se já foi pedido um caminho para este destino que ainda não foi recolhido pelo ciclo do run(): um pedido
+     * novo cancelaria esse, e com scans mais frequentes do que o tempo de planeamento nenhum caminho chegaria ao fim.
+     *
+     * @param end o destino
+     */
+    private boolean isPlanPending(IPoint end)
+    {
+        if (pendingEnd == null || pendingEnd.getX() != end.getX() || pendingEnd.getY() != end.getY())
+            return false;
+        Plan plan = nextPlan.get();
+        return !pendingPlan.isDone() || (plan != null && plan.request == lastRequest.get());
+    }
+
+    @Override
+    public void onSkippedTurn(SkippedTurnEvent event) {
+        super.onSkippedTurn(event);
+
+        skippedTurns++;
+    }
+
+    @Override
+    public void onRoundEnded(RoundEndedEvent event) {
+        super.onRoundEnded(event);
+
+        System.out.println("Turnos perdidos: " + skippedTurns + (BACKGROUND_PLANNING ? " (planeamento em background)" : ""));
+        System.out.println(planCache);
+        if (planningExecutor != null)
+            planningExecutor.shutdownNow();
+    }
+
     /**
      * ******** TODO: Necessário selecionar a opção Paint na consola do Robot *******
      * @param g
@@ -114,11 +248,22 @@ public class AdvancedWalkerRobot extends AdvancedRobot
 
         Rectangle rect = new Rectangle((int)ponto.x, (int)ponto.y, (int)(this.getWidth()*2.5), (int)(this.getHeight()*2.5));
 
-        if (inimigos.containsKey(event.getName())) //se já existe um retângulo deste inimigo
-            obstacles.remove(inimigos.get(event.getName()));//remover da lista de retângulos
+        Rectangle previous = inimigos.get(event.getName());
+        //se o inimigo não se mexeu, o mapa e o caminho continuam válidos
+        if (rect.equals(previous))
+            return;
+
+        if (previous != null) //se já existe um retângulo deste inimigo
+            obstacles.remove(previous);//remover da lista de retângulos
 
         obstacles.add(rect);
         inimigos.put(event.getName(), rect);
+        if (pendingEnd != null)
+            movedSinceRequest.add(event.getName());
+
+        //o retângulo novo pode cortar o caminho que o robot está a seguir
+        if (currentPoint >= 0)
+            repairPath(List.of(rect));
 
         //System.out.println("Enemies at:");
         //obstacles.forEach(x -> System.out.println(x));
@@ -134,6 +279,64 @@ public class AdvancedWalkerRobot extends AdvancedRobot
 
     }
 
+    /**
+     * Repara o resto do caminho atual depois de serem acrescentados obstáculos: só os troços que tocam nos obstáculos
+     * novos são planeados outra vez. Se o caminho não puder ser reparado (por exemplo, porque o destino ficou dentro de
+     * um obstáculo), é pedido um caminho novo à thread de planeamento, a não ser que já haja um pedido para o mesmo
+     * destino a caminho.
+     *
+     * @param added os obstáculos acrescentados
+     */
+    private void repairPath(List<Rectangle> added)
+    {
+        List<IPoint> remaining = new ArrayList<>();
+        remaining.add(new Point((int) getX(), (int) getY()));
+        remaining.addAll(points.subList(currentPoint, points.size()));
+
+        //só vale a pena copiar e indexar o mapa se algum obstáculo novo corta o resto do caminho
+        if (!crosses(remaining, added))
+            return;
+
+        impl.Path path = new impl.Path();
+        path.setPoints(remaining);
+
+        IUIConfiguration snapshot = PathPlanner.snapshot(conf);
+        ObstacleGrid grid = new ObstacleGrid(snapshot.getObstacles(), snapshot.getWidth(), snapshot.getHeight());
+        long start = System.nanoTime();
+        IPath repaired = new PathRepair(snapshot, grid).repair(path, added);
+        long elapsed = System.nanoTime() - start;
+
+        if (repaired == null)
+        {
+            if (BACKGROUND_PLANNING && !isPlanPending(conf.getEnd()))
+            {
+                conf.setStart(new Point((int) getX(), (int) getY()));
+                requestPlan(PathPlanner.snapshot(conf));
+            }
+            return;
+        }
+        if (repaired != path)
+        {
+            points = repaired.getPoints();
+            currentPoint = 0;
+            System.out.println("Caminho reparado em " + elapsed / 1000 + " µs");
+        }
+    }
+
+    /**
+     * Indica se algum dos obstáculos corta um dos troços de um caminho
+     */
+    private static boolean crosses(List<IPoint> path, List<Rectangle> obstacles)
+    {
+        for (int i = 1; i < path.size(); i++) {
+            IPoint a = path.get(i - 1), b = path.get(i);
+            for (Rectangle r : obstacles)
+                if (r.intersectsLine(a.getX(), a.getY(), b.getX(), b.getY()))
+                    return true;
+        }
+        return false;
+    }
+
     /**
      * Devolve as coordenadas de um alvo
      *
@@ -205,4 +408,18 @@ public class AdvancedWalkerRobot extends AdvancedRobot
             robot.setBack(distance);
         robot.execute();
     }
+
+    /**
+     * Caminho calculado pela thread de planeamento, com o número do pedido que lhe deu origem
+     */
+    private static class Plan
+    {
+        private final long request;
+        private final List<IPoint> points;
+
+        private Plan(long request, List<IPoint> points) {
+            this.request = request;
+            this.points = points;
+        }
+    }
 }
@@ -8,7 +8,9 @@ import java.awt.event.MouseEvent;
 import java.awt.geom.Point2D;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import interf.IPoint;
+import maps.PathPlanner;
 import robocode.Robot;
 
 public class WalkerRobot extends AdvancedRobot
@@ -21,6 +23,9 @@ public class WalkerRobot extends AdvancedRobot
     private List<IPoint> points;
     private HashMap<String, Rectangle> inimigos; //utilizada par associar inimigos a retângulos e permitir remover retângulos de inimigos já desatualizados
 
+    //tempo máximo gasto a planear um caminho, para não ultrapassar o tempo de CPU de cada turno
+    private static final long PLANNING_BUDGET_MILLIS = 5;
+
     @Override
     public void run()
     {
@@ -44,24 +49,14 @@ public class WalkerRobot extends AdvancedRobot
     public void onMouseClicked(MouseEvent e) {
         super.onMouseClicked(e);
 
-        Random rand = new Random();
-
         conf.setStart(new Point((int) this.getX(), (int) this.getY()));
         conf.setEnd(new Point(e.getX(), e.getY()));
 
-        /*
-         * TODO: Implementar a chamada ao algoritmo genético!
-         *
-         * */
-        System.out.println("Choo Choo!!!");
-        points = new ArrayList<>();
-        System.out.println("Choo Choo!!!");
-        points = new ArrayList<>();
-        points.add(new Point((int) this.getX(), (int) this.getY()));
-        int size = rand.nextInt(5); //cria um caminho aleatório com no máximo 5 nós intermédios (excetuando início e fim)
-        for (int i=0;i<size;i++)
-            points.add(new Point(rand.nextInt(conf.getWidth()),rand.nextInt(conf.getHeight())));
-        points.add(new Point(e.getX(), e.getY())); 
+        //devolve o melhor caminho encontrado pelo algoritmo genético dentro do tempo disponível
+        PathPlanner planner = new PathPlanner(conf);
+        points = planner.plan(PLANNING_BUDGET_MILLIS, TimeUnit.MILLISECONDS).getPoints();
+        System.out.println("Caminho com " + planner.getIntersections() + " interseções, em "
+                + planner.getGenerations() + " gerações");
 
         for (int i=0;i<points.size();i++)
             robotGoTo(this, points.get(i).getX(), points.get(i).getY());